@@ -0,0 +1,64 @@
+/**
+ *
+ */
+package com.valencia.jutils.compression;
+
+import java.util.zip.DataFormatException;
+
+/**
+ * A block compression algorithm. The ID of the codec that produced some data is recorded in
+ * {@link CompressionUtils.CompressedData#codec} so that {@link CompressionUtils#decompressData(CompressionUtils.CompressedData)} can
+ * find it again. Codecs other than the built-in ones must be {@link Codecs#register(Codec) registered} before data they produced
+ * can be decompressed.
+ *
+ * <p>Implementations must be thread safe.
+ *
+ * @author Gabriel Valencia, gee4vee@me.com
+ */
+public interface Codec {
+
+	/**
+	 * Returns the ID recorded with data produced by this codec. IDs 0-15 are reserved for the built-in codecs in {@link Codecs}.
+	 */
+	byte getId();
+
+	/**
+	 * Returns a short human readable name for this codec.
+	 */
+	String getName();
+
+	/**
+	 * Returns an upper bound on the compressed size of the specified number of bytes.
+	 */
+	int maxCompressedLength(int len);
+
+	/**
+	 * Compresses the specified range of the source into the destination.
+	 *
+	 * @param src The data to compress.
+	 * @param srcOff The offset of the data in the source.
+	 * @param srcLen The length of the data.
+	 * @param dst The array into which to compress. Must have at least {@link #maxCompressedLength(int)} bytes from the offset.
+	 * @param dstOff The offset in the destination at which to start writing.
+	 *
+	 * @return The number of compressed bytes written.
+	 */
+	int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff);
+
+	/**
+	 * Decompresses the specified range of the source into the destination.
+	 *
+	 * @param src The compressed data.
+	 * @param srcOff The offset of the compressed data in the source.
+	 * @param srcLen The length of the compressed data.
+	 * @param dst The array into which to decompress.
+	 * @param dstOff The offset in the destination at which to start writing.
+	 * @param originalLength The length of the uncompressed data.
+	 *
+	 * @return The number of bytes written, i.e. the original length.
+	 *
+	 * @throws DataFormatException If the compressed data is corrupt.
+	 */
+	int decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int originalLength) throws DataFormatException;
+
+}
@@ -0,0 +1,330 @@
+/**
+ *
+ */
+package com.valencia.jutils.compression;
+
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.commons.pool2.BasePooledObjectFactory;
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.impl.DefaultPooledObject;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+
+/**
+ * Pools {@link Deflater} and {@link Inflater} instances so that their native zlib state can be reused across calls and threads
+ * instead of being allocated for every operation and released only on finalization. A separate deflater pool is kept for each
+ * compression level and strategy. Instances are reset when they are returned and ended when they are evicted from the pool. Borrowing
+ * never blocks: when all pooled instances are in use, a new unpooled instance is handed out and ended when it is returned.
+ *
+ * <p>Every borrowed instance must be returned, typically in a <code>finally</code> block:
+ * <pre>
+ * Deflater def = pool.borrowDeflater(level);
+ * try {
+ *     ...
+ * } finally {
+ *     pool.returnDeflater(def, level);
+ * }
+ * </pre>
+ *
+ * @author Gabriel Valencia, gee4vee@me.com
+ */
+public class CodecPool {
+
+	public static final int DEFAULT_MAX_TOTAL = Runtime.getRuntime().availableProcessors() * 2;
+
+	private static volatile CodecPool defaultPool;
+
+	private final int maxTotal;
+	private final int maxIdle;
+	private final ConcurrentMap<Integer, GenericObjectPool<Deflater>> deflaterPools = new ConcurrentHashMap<>();
+	private final GenericObjectPool<Inflater> inflaterPool;
+	/**
+	 * The instances handed out because their pool was exhausted, which are ended instead of pooled when returned.
+	 */
+	private final Set<Object> unpooled = ConcurrentHashMap.newKeySet();
+
+	private final AtomicLong deflaterBorrows = new AtomicLong();
+	private final AtomicLong deflaterCreates = new AtomicLong();
+	private final AtomicLong inflaterBorrows = new AtomicLong();
+	private final AtomicLong inflaterCreates = new AtomicLong();
+
+	/**
+	 * Returns the shared pool used by {@link CompressionUtils}.
+	 */
+	public static CodecPool getDefault() {
+		CodecPool pool = defaultPool;
+		if (pool == null) {
+			synchronized (CodecPool.class) {
+				pool = defaultPool;
+				if (pool == null) {
+					pool = new CodecPool(DEFAULT_MAX_TOTAL, DEFAULT_MAX_TOTAL);
+					defaultPool = pool;
+				}
+			}
+		}
+		return pool;
+	}
+
+	/**
+	 * Replaces the shared pool used by {@link CompressionUtils}, e.g. to change its sizes. The previous pool is closed.
+	 */
+	public static void setDefault(CodecPool pool) {
+		CodecPool old;
+		synchronized (CodecPool.class) {
+			old = defaultPool;
+			defaultPool = pool;
+		}
+		if (old != null && old != pool) {
+			old.close();
+		}
+	}
+
+	/**
+	 * Returns a new pool.
+	 *
+	 * @param maxTotal The maximum number of instances that can be borrowed at once from each pool. Borrowers beyond this get a new
+	 * unpooled instance.
+	 * @param maxIdle The maximum number of idle instances kept in each pool. Instances returned beyond this are ended.
+	 */
+	public CodecPool(int maxTotal, int maxIdle) {
+		if (maxTotal <= 0 || maxIdle < 0) {
+			throw new IllegalArgumentException("Invalid pool sizes: maxTotal=" + maxTotal + ", maxIdle=" + maxIdle);
+		}
+		this.maxTotal = maxTotal;
+		this.maxIdle = maxIdle;
+		this.inflaterPool = new GenericObjectPool<>(new InflaterFactory(), this.newConfig());
+	}
+
+	private GenericObjectPoolConfig newConfig() {
+		GenericObjectPoolConfig config = new GenericObjectPoolConfig();
+		config.setMaxTotal(this.maxTotal);
+		config.setMaxIdle(this.maxIdle);
+		config.setMinIdle(0);
+		config.setBlockWhenExhausted(false);
+		config.setJmxEnabled(false);
+		return config;
+	}
+
+	private GenericObjectPool<Deflater> deflaterPool(int level, int strategy) {
+		if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION) {
+			throw new IllegalArgumentException("Invalid compression level: " + level);
+		}
+		if (strategy != Deflater.DEFAULT_STRATEGY && strategy != Deflater.FILTERED && strategy != Deflater.HUFFMAN_ONLY) {
+			throw new IllegalArgumentException("Invalid compression strategy: " + strategy);
+		}
+		Integer key = (strategy << 4) | (level + 1);
+		GenericObjectPool<Deflater> pool = this.deflaterPools.get(key);
+		if (pool == null) {
+			pool = this.deflaterPools.computeIfAbsent(key, k -> new GenericObjectPool<>(new DeflaterFactory(level, strategy), this.newConfig()));
+		}
+		return pool;
+	}
+
+	/**
+	 * Borrows a deflater for the specified compression level and the default strategy. The returned deflater is in its initial state.
+	 */
+	public Deflater borrowDeflater(int level) {
+		return this.borrowDeflater(level, Deflater.DEFAULT_STRATEGY);
+	}
+
+	/**
+	 * Borrows a deflater for the specified compression level and strategy. The returned deflater is in its initial state.
+	 */
+	public Deflater borrowDeflater(int level, int strategy) {
+		this.deflaterBorrows.incrementAndGet();
+		GenericObjectPool<Deflater> pool = this.deflaterPool(level, strategy);
+		try {
+			return pool.borrowObject();
+		} catch (NoSuchElementException e) {
+			this.deflaterCreates.incrementAndGet();
+			Deflater def = new Deflater(level);
+			def.setStrategy(strategy);
+			this.unpooled.add(def);
+			return def;
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IllegalStateException("Unable to borrow deflater", e);
+		}
+	}
+
+	/**
+	 * Returns a deflater previously borrowed for the specified compression level and the default strategy.
+	 */
+	public void returnDeflater(Deflater deflater, int level) {
+		this.returnDeflater(deflater, level, Deflater.DEFAULT_STRATEGY);
+	}
+
+	/**
+	 * Returns a deflater previously borrowed for the specified compression level and strategy.
+	 */
+	public void returnDeflater(Deflater deflater, int level, int strategy) {
+		if (deflater == null) {
+			return;
+		}
+		if (this.unpooled.remove(deflater)) {
+			deflater.end();
+		} else {
+			this.deflaterPool(level, strategy).returnObject(deflater);
+		}
+	}
+
+	/**
+	 * Borrows an inflater. The returned inflater is in its initial state.
+	 */
+	public Inflater borrowInflater() {
+		this.inflaterBorrows.incrementAndGet();
+		try {
+			return this.inflaterPool.borrowObject();
+		} catch (NoSuchElementException e) {
+			this.inflaterCreates.incrementAndGet();
+			Inflater inf = new Inflater();
+			this.unpooled.add(inf);
+			return inf;
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IllegalStateException("Unable to borrow inflater", e);
+		}
+	}
+
+	/**
+	 * Returns an inflater previously borrowed from this pool.
+	 */
+	public void returnInflater(Inflater inflater) {
+		if (inflater == null) {
+			return;
+		}
+		if (this.unpooled.remove(inflater)) {
+			inflater.end();
+		} else {
+			this.inflaterPool.returnObject(inflater);
+		}
+	}
+
+	/**
+	 * Returns a snapshot of the hit/miss statistics of this pool.
+	 */
+	public Stats getStats() {
+		return new Stats(this.deflaterBorrows.get(), this.deflaterCreates.get(), this.inflaterBorrows.get(), this.inflaterCreates.get());
+	}
+
+	/**
+	 * Closes this pool, ending all idle instances. Instances currently borrowed are ended when they are returned.
+	 */
+	public void close() {
+		for (GenericObjectPool<Deflater> pool : this.deflaterPools.values()) {
+			pool.close();
+		}
+		this.inflaterPool.close();
+	}
+
+	/**
+	 * Hit/miss statistics for a {@link CodecPool}. A miss is a borrow that had to create a new native instance.
+	 */
+	public static class Stats {
+
+		public final long deflaterBorrows;
+		public final long deflaterMisses;
+		public final long inflaterBorrows;
+		public final long inflaterMisses;
+
+		public Stats(long deflaterBorrows, long deflaterMisses, long inflaterBorrows, long inflaterMisses) {
+			this.deflaterBorrows = deflaterBorrows;
+			this.deflaterMisses = deflaterMisses;
+			this.inflaterBorrows = inflaterBorrows;
+			this.inflaterMisses = inflaterMisses;
+		}
+
+		public long getDeflaterHits() {
+			return Math.max(0, this.deflaterBorrows - this.deflaterMisses);
+		}
+
+		public long getInflaterHits() {
+			return Math.max(0, this.inflaterBorrows - this.inflaterMisses);
+		}
+
+		/**
+		 * Returns the fraction of all borrows that reused a pooled instance, or 0 if nothing has been borrowed.
+		 */
+		public double getHitRatio() {
+			long borrows = this.deflaterBorrows + this.inflaterBorrows;
+			if (borrows == 0) {
+				return 0;
+			}
+			return (double) (this.getDeflaterHits() + this.getInflaterHits()) / borrows;
+		}
+
+		@Override
+		public String toString() {
+			return "deflater hits/misses=" + this.getDeflaterHits() + "/" + this.deflaterMisses + ", inflater hits/misses="
+					+ this.getInflaterHits() + "/" + this.inflaterMisses;
+		}
+	}
+
+	private class DeflaterFactory extends BasePooledObjectFactory<Deflater> {
+
+		private final int level;
+		private final int strategy;
+
+		DeflaterFactory(int level, int strategy) {
+			this.level = level;
+			this.strategy = strategy;
+		}
+
+		@Override
+		public Deflater create() throws Exception {
+			CodecPool.this.deflaterCreates.incrementAndGet();
+			Deflater def = new Deflater(this.level);
+			def.setStrategy(this.strategy);
+			return def;
+		}
+
+		@Override
+		public PooledObject<Deflater> wrap(Deflater obj) {
+			return new DefaultPooledObject<>(obj);
+		}
+
+		@Override
+		public void passivateObject(PooledObject<Deflater> p) throws Exception {
+			p.getObject().reset();
+		}
+
+		@Override
+		public void destroyObject(PooledObject<Deflater> p) throws Exception {
+			p.getObject().end();
+		}
+	}
+
+	private class InflaterFactory extends BasePooledObjectFactory<Inflater> {
+
+		@Override
+		public Inflater create() throws Exception {
+			CodecPool.this.inflaterCreates.incrementAndGet();
+			return new Inflater();
+		}
+
+		@Override
+		public PooledObject<Inflater> wrap(Inflater obj) {
+			return new DefaultPooledObject<>(obj);
+		}
+
+		@Override
+		public void passivateObject(PooledObject<Inflater> p) throws Exception {
+			p.getObject().reset();
+		}
+
+		@Override
+		public void destroyObject(PooledObject<Inflater> p) throws Exception {
+			p.getObject().end();
+		}
+	}
+
+}
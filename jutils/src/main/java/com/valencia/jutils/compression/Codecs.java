@@ -0,0 +1,96 @@
+/**
+ *
+ */
+package com.valencia.jutils.compression;
+
+import java.util.zip.DataFormatException;
+
+/**
+ * The built-in {@link Codec codecs} and the registry used to look up codecs by ID.
+ *
+ * @author Gabriel Valencia, gee4vee@me.com
+ */
+public class Codecs {
+
+	public static final byte DEFLATE_ID = 0;
+	public static final byte STORED_ID = 1;
+	public static final byte LZ_ID = 2;
+
+	/**
+	 * Deflate with the {@link CompressionProfile#DEFAULT} profile. Data from any deflate codec decompresses with any other.
+	 */
+	public static final Codec DEFLATE = new DeflateCodec(CompressionProfile.DEFAULT);
+
+	/**
+	 * No compression.
+	 */
+	public static final Codec STORED = new Codec() {
+
+		@Override
+		public byte getId() {
+			return STORED_ID;
+		}
+
+		@Override
+		public String getName() {
+			return "stored";
+		}
+
+		@Override
+		public int maxCompressedLength(int len) {
+			return len;
+		}
+
+		@Override
+		public int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+			System.arraycopy(src, srcOff, dst, dstOff, srcLen);
+			return srcLen;
+		}
+
+		@Override
+		public int decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int originalLength) throws DataFormatException {
+			if (srcLen != originalLength) {
+				throw new DataFormatException("Stored length " + srcLen + " does not match original length " + originalLength);
+			}
+			System.arraycopy(src, srcOff, dst, dstOff, srcLen);
+			return srcLen;
+		}
+	};
+
+	/**
+	 * The fast LZ codec, see {@link LZCodec}.
+	 */
+	public static final Codec LZ = new LZCodec();
+
+	private static final Codec[] registry = new Codec[256];
+
+	static {
+		registry[DEFLATE_ID] = DEFLATE;
+		registry[STORED_ID] = STORED;
+		registry[LZ_ID] = LZ;
+	}
+
+	/**
+	 * Registers the specified codec so that data it produced can be decompressed by ID.
+	 *
+	 * @throws IllegalArgumentException If the codec uses a reserved ID or another codec is registered with its ID.
+	 */
+	public static synchronized void register(Codec codec) {
+		int id = codec.getId() & 0xff;
+		if (id < 16) {
+			throw new IllegalArgumentException("Codec IDs 0-15 are reserved: " + id);
+		}
+		if (registry[id] != null && registry[id] != codec) {
+			throw new IllegalArgumentException("Codec ID " + id + " is already registered to " + registry[id].getName());
+		}
+		registry[id] = codec;
+	}
+
+	/**
+	 * Returns the codec with the specified ID or <code>null</code> if there is none.
+	 */
+	public static Codec get(byte id) {
+		return registry[id & 0xff];
+	}
+
+}
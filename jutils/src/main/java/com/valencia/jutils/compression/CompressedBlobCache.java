@@ -0,0 +1,300 @@
+/**
+ *
+ */
+package com.valencia.jutils.compression;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+
+import com.valencia.jutils.compression.CompressionUtils.CompressedData;
+
+/**
+ * An in-memory cache of byte payloads that keeps them compressed, bounded by the total number of compressed bytes held rather than
+ * the number of entries. When the budget is exceeded the least recently used entries are evicted. A small hot tier keeps the most
+ * recently read entries decompressed so that repeated reads of the same payloads do not pay for inflation each time.
+ *
+ * <p>Keys are spread across a number of independently locked stripes, each with an equal share of the budgets, so concurrent access
+ * to different keys rarely contends. Compression and decompression happen outside the locks.
+ *
+ * @author Gabriel Valencia, gee4vee@me.com
+ *
+ * @param <K> The key type.
+ */
+public class CompressedBlobCache<K> {
+
+	public static final int DEFAULT_STRIPES = 16;
+
+	private final Stripe<K>[] stripes;
+	private final CompressionProfile profile;
+
+	private final AtomicLong hotHits = new AtomicLong();
+	private final AtomicLong coldHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Returns a new cache with the default number of stripes and the {@link CompressionProfile#FAST} profile.
+	 *
+	 * @param maxBytes The maximum number of compressed bytes to hold.
+	 * @param hotBytes The maximum number of decompressed bytes to hold in the hot tier. Can be 0 to disable the hot tier.
+	 */
+	public CompressedBlobCache(long maxBytes, long hotBytes) {
+		this(maxBytes, hotBytes, DEFAULT_STRIPES, CompressionProfile.FAST);
+	}
+
+	/**
+	 * Returns a new cache.
+	 *
+	 * @param maxBytes The maximum number of compressed bytes to hold.
+	 * @param hotBytes The maximum number of decompressed bytes to hold in the hot tier. Can be 0 to disable the hot tier.
+	 * @param stripes The number of independently locked stripes.
+	 * @param profile The profile used to compress payloads.
+	 */
+	@SuppressWarnings("unchecked")
+	public CompressedBlobCache(long maxBytes, long hotBytes, int stripes, CompressionProfile profile) {
+		if (maxBytes <= 0 || hotBytes < 0 || stripes <= 0) {
+			throw new IllegalArgumentException("Invalid cache sizes: maxBytes=" + maxBytes + ", hotBytes=" + hotBytes + ", stripes=" + stripes);
+		}
+		this.profile = profile;
+		this.stripes = (Stripe<K>[]) new Stripe<?>[stripes];
+		for (int i = 0; i < stripes; i++) {
+			this.stripes[i] = new Stripe<>(maxBytes / stripes, hotBytes / stripes);
+		}
+	}
+
+	private Stripe<K> stripe(Object key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return this.stripes[(h & 0x7fffffff) % this.stripes.length];
+	}
+
+	/**
+	 * Compresses and caches the specified payload, replacing any previous payload for the key. Payloads whose compressed size exceeds
+	 * a stripe's share of the budget are not cached.
+	 */
+	public void put(K key, byte[] value) {
+		CompressedData cdata = CompressionUtils.compressData(value, this.profile, true);
+		Stripe<K> stripe = this.stripe(key);
+		int evicted;
+		synchronized (stripe) {
+			evicted = stripe.put(key, cdata);
+		}
+		this.evictions.addAndGet(evicted);
+	}
+
+	/**
+	 * Returns a copy of the payload for the specified key or <code>null</code> if it is not cached.
+	 *
+	 * @throws IllegalStateException If the cached data cannot be decompressed, which indicates it was corrupted in memory.
+	 */
+	public byte[] get(K key) {
+		Stripe<K> stripe = this.stripe(key);
+		CompressedData cdata;
+		synchronized (stripe) {
+			byte[] hot = stripe.hot.get(key);
+			if (hot != null) {
+				// keep the compressed entry fresh as well so it isn't evicted while it's being read.
+				stripe.cold.get(key);
+				this.hotHits.incrementAndGet();
+				return hot.clone();
+			}
+			cdata = stripe.cold.get(key);
+		}
+		if (cdata == null) {
+			this.misses.incrementAndGet();
+			return null;
+		}
+		this.coldHits.incrementAndGet();
+
+		byte[] value;
+		try {
+			value = CompressionUtils.decompressData(cdata);
+		} catch (DataFormatException e) {
+			throw new IllegalStateException("Cached data for " + key + " is corrupt", e);
+		}
+		synchronized (stripe) {
+			// only promote if the entry was not replaced or removed while we were decompressing.
+			if (stripe.cold.get(key) == cdata) {
+				stripe.promote(key, value.clone());
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Removes the payload for the specified key.
+	 */
+	public void remove(K key) {
+		Stripe<K> stripe = this.stripe(key);
+		synchronized (stripe) {
+			stripe.remove(key);
+		}
+	}
+
+	/**
+	 * Removes all payloads.
+	 */
+	public void clear() {
+		for (Stripe<K> stripe : this.stripes) {
+			synchronized (stripe) {
+				stripe.cold.clear();
+				stripe.hot.clear();
+				stripe.coldBytes = stripe.originalBytes = stripe.hotBytes = 0;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of cached payloads.
+	 */
+	public int size() {
+		int size = 0;
+		for (Stripe<K> stripe : this.stripes) {
+			synchronized (stripe) {
+				size += stripe.cold.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Returns a snapshot of the metrics of this cache.
+	 */
+	public Stats getStats() {
+		long compressed = 0;
+		long original = 0;
+		long hot = 0;
+		for (Stripe<K> stripe : this.stripes) {
+			synchronized (stripe) {
+				compressed += stripe.coldBytes;
+				original += stripe.originalBytes;
+				hot += stripe.hotBytes;
+			}
+		}
+		return new Stats(this.hotHits.get(), this.coldHits.get(), this.misses.get(), this.evictions.get(), compressed, original, hot);
+	}
+
+	/**
+	 * Metrics of a {@link CompressedBlobCache}.
+	 */
+	public static class Stats {
+
+		public final long hotHits;
+		public final long coldHits;
+		public final long misses;
+		public final long evictions;
+		public final long compressedBytes;
+		public final long originalBytes;
+		public final long hotBytes;
+
+		public Stats(long hotHits, long coldHits, long misses, long evictions, long compressedBytes, long originalBytes, long hotBytes) {
+			this.hotHits = hotHits;
+			this.coldHits = coldHits;
+			this.misses = misses;
+			this.evictions = evictions;
+			this.compressedBytes = compressedBytes;
+			this.originalBytes = originalBytes;
+			this.hotBytes = hotBytes;
+		}
+
+		/**
+		 * Returns the fraction of lookups that found a payload, or 0 if there were no lookups.
+		 */
+		public double getHitRate() {
+			long lookups = this.hotHits + this.coldHits + this.misses;
+			return lookups == 0 ? 0 : (double) (this.hotHits + this.coldHits) / lookups;
+		}
+
+		/**
+		 * Returns the ratio of the original size to the compressed size of the cached payloads, or 0 if the cache is empty.
+		 */
+		public double getCompressionRatio() {
+			return this.compressedBytes == 0 ? 0 : (double) this.originalBytes / this.compressedBytes;
+		}
+
+		@Override
+		public String toString() {
+			return "hit rate=" + this.getHitRate() + " (hot=" + this.hotHits + ", cold=" + this.coldHits + ", misses=" + this.misses
+					+ "), evictions=" + this.evictions + ", compressed bytes=" + this.compressedBytes + ", ratio=" + this.getCompressionRatio()
+					+ ", hot bytes=" + this.hotBytes;
+		}
+	}
+
+	/**
+	 * A partition of the cache. All access must be synchronized on the stripe.
+	 */
+	private static class Stripe<K> {
+
+		final long maxBytes;
+		final long maxHotBytes;
+		final LinkedHashMap<K, CompressedData> cold = new LinkedHashMap<>(16, 0.75f, true);
+		final LinkedHashMap<K, byte[]> hot = new LinkedHashMap<>(16, 0.75f, true);
+		long coldBytes;
+		long originalBytes;
+		long hotBytes;
+
+		Stripe(long maxBytes, long maxHotBytes) {
+			this.maxBytes = maxBytes;
+			this.maxHotBytes = maxHotBytes;
+		}
+
+		/**
+		 * Adds the entry and evicts least recently used entries until the stripe is within budget. Returns the number evicted.
+		 */
+		int put(K key, CompressedData cdata) {
+			this.remove(key);
+			if (cdata.compressedLength > this.maxBytes) {
+				return 0;
+			}
+			this.cold.put(key, cdata);
+			this.coldBytes += cdata.compressedLength;
+			this.originalBytes += cdata.originalLength;
+
+			int evicted = 0;
+			Iterator<Map.Entry<K, CompressedData>> it = this.cold.entrySet().iterator();
+			while (this.coldBytes > this.maxBytes && it.hasNext()) {
+				Map.Entry<K, CompressedData> eldest = it.next();
+				it.remove();
+				this.coldBytes -= eldest.getValue().compressedLength;
+				this.originalBytes -= eldest.getValue().originalLength;
+				this.removeHot(eldest.getKey());
+				evicted++;
+			}
+			return evicted;
+		}
+
+		void promote(K key, byte[] value) {
+			if (value.length > this.maxHotBytes) {
+				return;
+			}
+			this.removeHot(key);
+			this.hot.put(key, value);
+			this.hotBytes += value.length;
+			Iterator<Map.Entry<K, byte[]>> it = this.hot.entrySet().iterator();
+			while (this.hotBytes > this.maxHotBytes && it.hasNext()) {
+				this.hotBytes -= it.next().getValue().length;
+				it.remove();
+			}
+		}
+
+		void remove(K key) {
+			CompressedData old = this.cold.remove(key);
+			if (old != null) {
+				this.coldBytes -= old.compressedLength;
+				this.originalBytes -= old.originalLength;
+			}
+			this.removeHot(key);
+		}
+
+		void removeHot(K key) {
+			byte[] old = this.hot.remove(key);
+			if (old != null) {
+				this.hotBytes -= old.length;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,179 @@
+/**
+ *
+ */
+package com.valencia.jutils.compression;
+
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * An output stream that compresses the data written to it using a framed, chunked format. Data is buffered into chunks of a fixed
+ * size and each chunk is compressed independently into its own frame, so the memory used by this stream is bounded by the chunk size
+ * regardless of how much data is written. Use {@link DecompressingInputStream} to read the data back.
+ *
+ * <p>The format consists of a header followed by any number of frames and an end marker:
+ * <pre>
+ * header: int magic, byte version, int chunkSize
+ * frame:  int originalLength, int compressedLength, int crc32, byte[compressedLength] data
+ * end:    int 0
+ * </pre>
+ *
+ * @author Gabriel Valencia, gee4vee@me.com
+ */
+public class CompressingOutputStream extends FilterOutputStream {
+
+	static final int MAGIC = 0x4A55435A; // "JUCZ"
+	static final byte VERSION = 1;
+
+	public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+	/**
+	 * The largest chunk size, which bounds the buffers a {@link DecompressingInputStream} allocates for a header it reads.
+	 */
+	public static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+
+	private final DataOutputStream dout;
+	private final Deflater deflater;
+	private final CRC32 crc = new CRC32();
+	private final byte[] chunk;
+	private final byte[] compressed;
+	private int chunkLen = 0;
+	private boolean headerWritten = false;
+	private boolean closed = false;
+
+	/**
+	 * Returns a new compressing stream that writes to the specified stream using the default chunk size and best compression.
+	 */
+	public CompressingOutputStream(OutputStream out) {
+		this(out, DEFAULT_CHUNK_SIZE, Deflater.BEST_COMPRESSION);
+	}
+
+	/**
+	 * Returns a new compressing stream that writes to the specified stream.
+	 *
+	 * @param out The stream to which frames are written.
+	 * @param chunkSize The maximum number of uncompressed bytes in each frame, at most {@link #MAX_CHUNK_SIZE}.
+	 * @param level The deflate compression level, e.g. {@link Deflater#BEST_SPEED}.
+	 */
+	public CompressingOutputStream(OutputStream out, int chunkSize, int level) {
+		super(out);
+		if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE) {
+			throw new IllegalArgumentException("Chunk size must be between 1 and " + MAX_CHUNK_SIZE + ": " + chunkSize);
+		}
+		this.dout = new DataOutputStream(out);
+		this.deflater = new Deflater(level);
+		this.chunk = new byte[chunkSize];
+		this.compressed = new byte[CompressionUtils.maxCompressedLength(chunkSize)];
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		this.ensureOpen();
+		if (this.chunkLen == this.chunk.length) {
+			this.writeFrame();
+		}
+		this.chunk[this.chunkLen++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		this.ensureOpen();
+		if ((off | len | (off + len) | (b.length - (off + len))) < 0) {
+			throw new IndexOutOfBoundsException();
+		}
+		while (len > 0) {
+			if (this.chunkLen == this.chunk.length) {
+				this.writeFrame();
+			}
+			int n = Math.min(len, this.chunk.length - this.chunkLen);
+			System.arraycopy(b, off, this.chunk, this.chunkLen, n);
+			this.chunkLen += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Compresses and writes any buffered data as a frame, then flushes the underlying stream. Flushing frequently produces smaller
+	 * frames and therefore worse compression.
+	 */
+	@Override
+	public void flush() throws IOException {
+		this.ensureOpen();
+		if (this.chunkLen > 0) {
+			this.writeFrame();
+		}
+		this.dout.flush();
+	}
+
+	/**
+	 * Writes any buffered data and the end marker without closing the underlying stream.
+	 *
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+		if (this.closed) {
+			return;
+		}
+		try {
+			this.writeHeader();
+			if (this.chunkLen > 0) {
+				this.writeFrame();
+			}
+			this.dout.writeInt(0);
+			this.dout.flush();
+		} finally {
+			this.closed = true;
+			this.deflater.end();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			this.finish();
+		} finally {
+			this.dout.close();
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (this.closed) {
+			throw new IOException("Stream closed");
+		}
+	}
+
+	private void writeHeader() throws IOException {
+		if (this.headerWritten) {
+			return;
+		}
+		this.dout.writeInt(MAGIC);
+		this.dout.writeByte(VERSION);
+		this.dout.writeInt(this.chunk.length);
+		this.headerWritten = true;
+	}
+
+	private void writeFrame() throws IOException {
+		this.writeHeader();
+		this.crc.reset();
+		this.crc.update(this.chunk, 0, this.chunkLen);
+
+		this.deflater.reset();
+		this.deflater.setInput(this.chunk, 0, this.chunkLen);
+		this.deflater.finish();
+		int cLen = 0;
+		while (!this.deflater.finished()) {
+			cLen += this.deflater.deflate(this.compressed, cLen, this.compressed.length - cLen);
+		}
+
+		this.dout.writeInt(this.chunkLen);
+		this.dout.writeInt(cLen);
+		this.dout.writeInt((int) this.crc.getValue());
+		this.dout.write(this.compressed, 0, cLen);
+		this.chunkLen = 0;
+	}
+
+}
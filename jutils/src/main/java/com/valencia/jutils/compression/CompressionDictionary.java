@@ -0,0 +1,200 @@
+/**
+ *
+ */
+package com.valencia.jutils.compression;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+/**
+ * A preset dictionary for deflate, see {@link Deflater#setDictionary(byte[])}. Priming the compressor with content that is typical
+ * of the data lets small payloads reference it instead of spelling everything out, so records of a few hundred bytes actually shrink.
+ *
+ * <p>A dictionary is identified by the Adler-32 checksum of its content, which is the same ID zlib records in the compressed stream,
+ * except that a checksum of 0 is mapped to 1 so that it can't be mistaken for {@link #NO_DICTIONARY}.
+ * The ID is stored in {@link CompressionUtils.CompressedData#dictionaryId} so that the matching dictionary can be found again when
+ * decompressing. Dictionaries that are {@link #register(CompressionDictionary) registered} are found automatically by
+ * {@link CompressionUtils#decompressData(CompressionUtils.CompressedData)}.
+ *
+ * @author Gabriel Valencia, gee4vee@me.com
+ */
+public class CompressionDictionary {
+
+	/**
+	 * The dictionary ID of data compressed without a dictionary.
+	 */
+	public static final int NO_DICTIONARY = 0;
+
+	public static final int DEFAULT_MAX_SIZE = 16 * 1024;
+
+	/**
+	 * The length of the substrings counted by {@link #train(Collection, int)}.
+	 */
+	private static final int GRAM_LEN = 8;
+
+	/**
+	 * The length of the sample segment added to the dictionary around each common substring.
+	 */
+	private static final int SEGMENT_LEN = 32;
+
+	private static final Map<Integer, CompressionDictionary> registry = new ConcurrentHashMap<>();
+
+	private final int id;
+	private final byte[] data;
+
+	/**
+	 * Returns a new dictionary with the specified content.
+	 */
+	public CompressionDictionary(byte[] data) {
+		if (data.length == 0) {
+			throw new IllegalArgumentException("Dictionary cannot be empty");
+		}
+		this.data = data.clone();
+		Adler32 adler = new Adler32();
+		adler.update(this.data, 0, this.data.length);
+		int adlerValue = (int) adler.getValue();
+		this.id = adlerValue == NO_DICTIONARY ? 1 : adlerValue;
+	}
+
+	/**
+	 * Returns the ID of this dictionary, which is never {@link #NO_DICTIONARY}. IDs are checksums, so different dictionaries can
+	 * share one.
+	 */
+	public int getId() {
+		return this.id;
+	}
+
+	/**
+	 * Returns a copy of the content of this dictionary.
+	 */
+	public byte[] getData() {
+		return this.data.clone();
+	}
+
+	byte[] data() {
+		return this.data;
+	}
+
+	/**
+	 * Registers the specified dictionary so that data compressed with it can be decompressed without passing it explicitly.
+	 * Registering a dictionary with the same content as a registered one has no effect.
+	 *
+	 * @throws IllegalArgumentException If a dictionary with different content is already registered with the same ID.
+	 */
+	public static void register(CompressionDictionary dict) {
+		CompressionDictionary existing = registry.putIfAbsent(dict.id, dict);
+		if (existing != null && !Arrays.equals(existing.data, dict.data)) {
+			throw new IllegalArgumentException("A different dictionary is already registered with ID " + Integer.toHexString(dict.id));
+		}
+	}
+
+	/**
+	 * Removes the dictionary with the specified ID from the registry.
+	 */
+	public static void unregister(int id) {
+		registry.remove(id);
+	}
+
+	/**
+	 * Returns the registered dictionary with the specified ID or <code>null</code> if there is none.
+	 */
+	public static CompressionDictionary get(int id) {
+		return registry.get(id);
+	}
+
+	/**
+	 * Trains a dictionary of up to {@link #DEFAULT_MAX_SIZE} bytes from the specified samples.
+	 */
+	public static CompressionDictionary train(Collection<byte[]> samples) {
+		return train(samples, DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * Trains a dictionary from the specified samples. Substrings are ranked by the number of samples they occur in, and for each of the
+	 * most common ones a segment of the surrounding sample is added to the dictionary, most common last since deflate encodes nearer
+	 * matches more cheaply. Substrings already covered by an earlier segment are skipped.
+	 *
+	 * @param samples Representative payloads, e.g. a few hundred recent messages.
+	 * @param maxSize The maximum size of the dictionary in bytes. Deflate can only reference the last 32K of it.
+	 *
+	 * @throws IllegalArgumentException If no substring occurs in more than one sample.
+	 */
+	public static CompressionDictionary train(Collection<byte[]> samples, int maxSize) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("Dictionary size must be positive: " + maxSize);
+		}
+
+		// count in how many samples each gram occurs and remember its first occurrence: {count, sample index, offset}.
+		List<byte[]> sampleList = new ArrayList<>(samples);
+		Map<Long, int[]> counts = new HashMap<>();
+		Set<Long> seen = new HashSet<>();
+		for (int s = 0; s < sampleList.size(); s++) {
+			byte[] sample = sampleList.get(s);
+			seen.clear();
+			for (int i = 0; i + GRAM_LEN <= sample.length; i++) {
+				Long gram = gram(sample, i);
+				if (seen.add(gram)) {
+					int[] count = counts.get(gram);
+					if (count == null) {
+						counts.put(gram, new int[] { 1, s, i });
+					} else {
+						count[0]++;
+					}
+				}
+			}
+		}
+
+		List<Map.Entry<Long, int[]>> ranked = new ArrayList<>();
+		for (Map.Entry<Long, int[]> e : counts.entrySet()) {
+			if (e.getValue()[0] > 1) {
+				ranked.add(e);
+			}
+		}
+		if (ranked.isEmpty()) {
+			throw new IllegalArgumentException("Samples have nothing in common to build a dictionary from");
+		}
+		ranked.sort((a, b) -> Integer.compare(b.getValue()[0], a.getValue()[0]));
+
+		// fill the dictionary from the end so that the most common segments are nearest to the data.
+		byte[] dict = new byte[maxSize];
+		int pos = maxSize;
+		Set<Long> covered = new HashSet<>();
+		for (Map.Entry<Long, int[]> e : ranked) {
+			if (pos == 0) {
+				break;
+			}
+			if (covered.contains(e.getKey())) {
+				continue;
+			}
+			byte[] sample = sampleList.get(e.getValue()[1]);
+			int segStart = Math.max(0, e.getValue()[2] - (SEGMENT_LEN - GRAM_LEN) / 2);
+			int segEnd = Math.min(sample.length, segStart + SEGMENT_LEN);
+			int segLen = Math.min(segEnd - segStart, pos);
+			segStart = segEnd - segLen;
+			pos -= segLen;
+			System.arraycopy(sample, segStart, dict, pos, segLen);
+			for (int i = segStart; i + GRAM_LEN <= segEnd; i++) {
+				covered.add(gram(sample, i));
+			}
+		}
+		return new CompressionDictionary(Arrays.copyOfRange(dict, pos, maxSize));
+	}
+
+	private static Long gram(byte[] b, int off) {
+		long g = 0;
+		for (int i = 0; i < GRAM_LEN; i++) {
+			g = (g << 8) | (b[off + i] & 0xff);
+		}
+		return g;
+	}
+
+}
@@ -0,0 +1,58 @@
+/**
+ *
+ */
+package com.valencia.jutils.compression;
+
+import java.util.zip.Deflater;
+
+/**
+ * Deflate level and strategy combinations for {@link CompressionUtils}. The constants are declared from cheapest to most expensive,
+ * which is the order in which {@link CompressionUtils#selectProfile(byte[], double)} tries them.
+ *
+ * @author Gabriel Valencia, gee4vee@me.com
+ */
+public enum CompressionProfile {
+
+	/**
+	 * Huffman coding only, without string matching. Very fast, useful for data with a skewed byte distribution but few repeats.
+	 */
+	HUFFMAN_ONLY(Deflater.DEFAULT_COMPRESSION, Deflater.HUFFMAN_ONLY),
+
+	/**
+	 * Fastest string matching.
+	 */
+	FAST(Deflater.BEST_SPEED, Deflater.DEFAULT_STRATEGY),
+
+	/**
+	 * zlib's default trade-off between speed and ratio.
+	 */
+	DEFAULT(Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY),
+
+	/**
+	 * Best ratio, slowest. This is what {@link CompressionUtils#compressData(byte[])} uses.
+	 */
+	BEST(Deflater.BEST_COMPRESSION, Deflater.DEFAULT_STRATEGY);
+
+	private final int level;
+	private final int strategy;
+
+	private CompressionProfile(int level, int strategy) {
+		this.level = level;
+		this.strategy = strategy;
+	}
+
+	/**
+	 * Returns the {@link Deflater} compression level of this profile.
+	 */
+	public int getLevel() {
+		return this.level;
+	}
+
+	/**
+	 * Returns the {@link Deflater} strategy of this profile.
+	 */
+	public int getStrategy() {
+		return this.strategy;
+	}
+
+}
@@ -0,0 +1,344 @@
+/**
+ *
+ */
+package com.valencia.jutils.compression;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.valencia.jutils.compression.CompressionUtils.CompressedData;
+
+/**
+ * Compresses data asynchronously on a fixed set of worker threads so that deflate time stays out of the caller's latency. Jobs are
+ * held in a bounded queue; what happens when it is full is determined by the {@link Backpressure} policy. Workers take any small jobs
+ * waiting behind the one they picked up as a batch, which cuts the per-job hand-off cost when many tiny payloads are submitted.
+ *
+ * @author Gabriel Valencia, gee4vee@me.com
+ */
+public class CompressionService {
+
+	protected static final Logger logger = LogManager.getLogger(CompressionService.class);
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+	/**
+	 * Jobs with fewer bytes than this are batched with other waiting jobs.
+	 */
+	public static final int BATCH_THRESHOLD = 4 * 1024;
+
+	public static final int MAX_BATCH = 32;
+
+	/**
+	 * What to do with a submission when the queue is full.
+	 */
+	public static enum Backpressure {
+		/**
+		 * Block the submitting thread until there is room in the queue.
+		 */
+		BLOCK,
+		/**
+		 * Fail the returned future with a {@link RejectedExecutionException}.
+		 */
+		REJECT,
+		/**
+		 * Compress in the submitting thread.
+		 */
+		CALLER_RUNS
+	}
+
+	private final BlockingQueue<Job> queue;
+	private final Backpressure backpressure;
+	private final Thread[] workers;
+	private volatile boolean shutdown = false;
+	/**
+	 * The number of submissions between their shutdown check and the end of their enqueue. Workers only exit when it is 0, so that a
+	 * job enqueued by a submission that passed the check before {@link #shutdown()} is never left behind.
+	 */
+	private final AtomicInteger submitting = new AtomicInteger();
+
+	private final AtomicLong submitted = new AtomicLong();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong callerRuns = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong totalWaitNanos = new AtomicLong();
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+	private final AtomicLong totalServiceNanos = new AtomicLong();
+
+	/**
+	 * Returns a new service with one worker per core, the default queue capacity and the {@link Backpressure#BLOCK} policy.
+	 */
+	public CompressionService() {
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_CAPACITY, Backpressure.BLOCK);
+	}
+
+	/**
+	 * Returns a new service and starts its workers.
+	 *
+	 * @param workers The number of worker threads.
+	 * @param queueCapacity The maximum number of jobs waiting to be compressed.
+	 * @param backpressure What to do with submissions when the queue is full.
+	 */
+	public CompressionService(int workers, int queueCapacity, Backpressure backpressure) {
+		if (workers <= 0 || queueCapacity <= 0) {
+			throw new IllegalArgumentException("Invalid service sizes: workers=" + workers + ", queueCapacity=" + queueCapacity);
+		}
+		this.queue = new ArrayBlockingQueue<>(queueCapacity);
+		this.backpressure = backpressure;
+		this.workers = new Thread[workers];
+		for (int i = 0; i < workers; i++) {
+			Thread t = new Thread(this::work, CompressionService.class.getSimpleName() + "-" + i);
+			t.setDaemon(true);
+			this.workers[i] = t;
+			t.start();
+		}
+	}
+
+	/**
+	 * Submits the specified data for compression with the {@link CompressionProfile#BEST} profile.
+	 */
+	public CompletableFuture<CompressedData> submit(byte[] data) {
+		return this.submit(data, CompressionProfile.BEST);
+	}
+
+	/**
+	 * Submits the specified data for compression. The data must not be modified until the returned future completes.
+	 *
+	 * @return A future completed with the trimmed compressed data, or exceptionally with a {@link RejectedExecutionException} if the
+	 * service is shut down or the queue is full under the {@link Backpressure#REJECT} policy.
+	 */
+	public CompletableFuture<CompressedData> submit(byte[] data, CompressionProfile profile) {
+		CompletableFuture<CompressedData> future = new CompletableFuture<>();
+		this.submitting.incrementAndGet();
+		try {
+			if (this.shutdown) {
+				future.completeExceptionally(new RejectedExecutionException("Compression service is shut down"));
+				return future;
+			}
+			this.submitted.incrementAndGet();
+			Job job = new Job(data, profile, future);
+			switch (this.backpressure) {
+			case BLOCK:
+				try {
+					this.queue.put(job);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					this.rejected.incrementAndGet();
+					future.completeExceptionally(new RejectedExecutionException("Interrupted while waiting for queue space", e));
+				}
+				break;
+			case REJECT:
+				if (!this.queue.offer(job)) {
+					this.rejected.incrementAndGet();
+					future.completeExceptionally(new RejectedExecutionException("Compression queue is full"));
+				}
+				break;
+			case CALLER_RUNS:
+				if (!this.queue.offer(job)) {
+					this.callerRuns.incrementAndGet();
+					this.run(job);
+				}
+				break;
+			}
+			return future;
+		} finally {
+			this.submitting.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Returns the number of jobs waiting in the queue.
+	 */
+	public int getQueueDepth() {
+		return this.queue.size();
+	}
+
+	/**
+	 * Returns a snapshot of the metrics of this service.
+	 */
+	public Stats getStats() {
+		return new Stats(this.queue.size(), this.submitted.get(), this.completed.get(), this.rejected.get(), this.callerRuns.get(),
+				this.batches.get(), this.totalWaitNanos.get(), this.maxWaitNanos.get(), this.totalServiceNanos.get());
+	}
+
+	/**
+	 * Stops accepting submissions. Jobs already queued are still compressed.
+	 */
+	public void shutdown() {
+		this.shutdown = true;
+	}
+
+	/**
+	 * Waits for the workers to finish the queued jobs after {@link #shutdown()}. If the workers have all exited but jobs are still
+	 * queued, which happens when workers are interrupted, those jobs are failed with a {@link RejectedExecutionException}.
+	 *
+	 * @return <code>true</code> if all workers finished within the timeout.
+	 *
+	 * @throws InterruptedException
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for (Thread worker : this.workers) {
+			long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+			if (remaining > 0) {
+				worker.join(remaining);
+			}
+			if (worker.isAlive()) {
+				return false;
+			}
+		}
+		this.failQueued();
+		return true;
+	}
+
+	private void failQueued() {
+		List<Job> leftover = new ArrayList<>();
+		this.queue.drainTo(leftover);
+		for (Job job : leftover) {
+			this.rejected.incrementAndGet();
+			job.future.completeExceptionally(new RejectedExecutionException("Compression service terminated before the job ran"));
+		}
+	}
+
+	private void work() {
+		List<Job> batch = new ArrayList<>(MAX_BATCH);
+		while (true) {
+			Job job;
+			try {
+				job = this.queue.poll(100, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				logger.debug("Compression worker interrupted, exiting", e);
+				return;
+			}
+			if (job == null) {
+				if (this.shutdown && this.submitting.get() == 0 && this.queue.isEmpty()) {
+					return;
+				}
+				continue;
+			}
+			batch.add(job);
+			if (job.data.length < BATCH_THRESHOLD) {
+				this.takeSmallJobs(batch);
+				this.batches.incrementAndGet();
+			}
+			for (Job j : batch) {
+				this.run(j);
+			}
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Adds the small jobs at the head of the queue to the batch, leaving large jobs for the other workers.
+	 */
+	private void takeSmallJobs(List<Job> batch) {
+		while (batch.size() < MAX_BATCH) {
+			Job next = this.queue.peek();
+			if (next == null || next.data.length >= BATCH_THRESHOLD) {
+				return;
+			}
+			next = this.queue.poll();
+			if (next == null) {
+				return;
+			}
+			// another worker may have taken the head in between, in which case this may be a large job. it ends the batch.
+			batch.add(next);
+			if (next.data.length >= BATCH_THRESHOLD) {
+				return;
+			}
+		}
+	}
+
+	private void run(Job job) {
+		long start = System.nanoTime();
+		long wait = start - job.enqueueNanos;
+		this.totalWaitNanos.addAndGet(wait);
+		long max;
+		while (wait > (max = this.maxWaitNanos.get()) && !this.maxWaitNanos.compareAndSet(max, wait)) {
+			// retry until we either set the max or someone else set a larger one.
+		}
+		try {
+			CompressedData cdata = CompressionUtils.compressData(job.data, job.profile, true);
+			job.future.complete(cdata);
+		} catch (Throwable t) {
+			// complete the future even on errors, otherwise the caller waits forever.
+			if (t instanceof Error) {
+				logger.error("Error compressing " + job.data.length + " bytes", t);
+			}
+			job.future.completeExceptionally(t);
+		}
+		this.totalServiceNanos.addAndGet(System.nanoTime() - start);
+		this.completed.incrementAndGet();
+	}
+
+	private static class Job {
+
+		final byte[] data;
+		final CompressionProfile profile;
+		final CompletableFuture<CompressedData> future;
+		final long enqueueNanos = System.nanoTime();
+
+		Job(byte[] data, CompressionProfile profile, CompletableFuture<CompressedData> future) {
+			this.data = data;
+			this.profile = profile;
+			this.future = future;
+		}
+	}
+
+	/**
+	 * Metrics of a {@link CompressionService}. Wait time is measured from submission until a worker starts compressing the job and
+	 * service time is the time spent compressing it.
+	 */
+	public static class Stats {
+
+		public final int queueDepth;
+		public final long submitted;
+		public final long completed;
+		public final long rejected;
+		public final long callerRuns;
+		public final long batches;
+		public final long totalWaitNanos;
+		public final long maxWaitNanos;
+		public final long totalServiceNanos;
+
+		public Stats(int queueDepth, long submitted, long completed, long rejected, long callerRuns, long batches, long totalWaitNanos,
+				long maxWaitNanos, long totalServiceNanos) {
+			this.queueDepth = queueDepth;
+			this.submitted = submitted;
+			this.completed = completed;
+			this.rejected = rejected;
+			this.callerRuns = callerRuns;
+			this.batches = batches;
+			this.totalWaitNanos = totalWaitNanos;
+			this.maxWaitNanos = maxWaitNanos;
+			this.totalServiceNanos = totalServiceNanos;
+		}
+
+		public double getAverageWaitMillis() {
+			return this.completed == 0 ? 0 : this.totalWaitNanos / 1e6 / this.completed;
+		}
+
+		public double getAverageServiceMillis() {
+			return this.completed == 0 ? 0 : this.totalServiceNanos / 1e6 / this.completed;
+		}
+
+		@Override
+		public String toString() {
+			return "queue depth=" + this.queueDepth + ", submitted=" + this.submitted + ", completed=" + this.completed + ", rejected="
+					+ this.rejected + ", caller runs=" + this.callerRuns + ", batches=" + this.batches + ", avg wait ms="
+					+ this.getAverageWaitMillis() + ", max wait ms=" + this.maxWaitNanos / 1e6 + ", avg service ms="
+					+ this.getAverageServiceMillis();
+		}
+	}
+
+}
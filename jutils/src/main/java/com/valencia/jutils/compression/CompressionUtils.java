@@ -5,8 +5,13 @@ package com.valencia.jutils.compression;
 
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
@@ -18,44 +23,693 @@ import java.util.zip.Inflater;
  */
 public class CompressionUtils {
 	
+	/**
+	 * The number of leading bytes of the input that {@link #selectProfile(byte[], double)} compresses to estimate the ratio.
+	 */
+	public static final int ADAPTIVE_SAMPLE_SIZE = 64 * 1024;
+	
+	/**
+	 * Inputs shorter than this are stored rather than deflated unless a dictionary is used, since the deflate overhead outweighs any 
+	 * savings.
+	 */
+	public static final int MIN_COMPRESS_LENGTH = 64;
+	
+	/**
+	 * Inputs whose sampled byte entropy is above this many bits per byte are stored rather than deflated. Already compressed or 
+	 * encrypted data is typically above 7.9.
+	 */
+	public static final double MAX_COMPRESS_ENTROPY = 7.8;
+	
+	/**
+	 * The largest ratio of original to compressed length that is accepted, which is the limit of deflate. The other codecs can't 
+	 * compress further.
+	 */
+	public static final int MAX_COMPRESSION_RATIO = 1032;
+	
+	/**
+	 * The number of bytes sampled to estimate the entropy of the input.
+	 */
+	private static final int ENTROPY_SAMPLE_SIZE = 4 * 1024;
+	
+	/**
+	 * Per-thread input and output scratch arrays used to move data to and from direct buffers.
+	 */
+	private static final ThreadLocal<byte[][]> BUFFER_SCRATCH = ThreadLocal.withInitial(() -> new byte[][] { new byte[32 * 1024], 
+			new byte[32 * 1024] });
+	
+	private static final AtomicLong compressedCount = new AtomicLong();
+	private static final AtomicLong storedSmallCount = new AtomicLong();
+	private static final AtomicLong storedEntropyCount = new AtomicLong();
+	private static final AtomicLong storedExpandedCount = new AtomicLong();
+	
 	public static CompressedData compressData(byte[] data) {
 		return compressData(data, false);
 	}
 	
 	public static CompressedData compressData(byte[] data, boolean trimResult) {
+		return compressData(data, CompressionProfile.BEST, trimResult);
+	}
+	
+	public static CompressedData compressData(byte[] data, CompressionProfile profile) {
+		return compressData(data, profile, false);
+	}
+	
+	/**
+	 * Compresses the specified data using the level and strategy of the specified profile.
+	 * 
+	 * @param data The data to compress.
+	 * @param profile The compression profile.
+	 * @param trimResult Whether to trim the data array of the result to the compressed length.
+	 */
+	public static CompressedData compressData(byte[] data, CompressionProfile profile, boolean trimResult) {
+		return compressData(data, profile, null, trimResult);
+	}
+	
+	public static CompressedData compressData(byte[] data, CompressionDictionary dict) {
+		return compressData(data, CompressionProfile.BEST, dict, true);
+	}
+	
+	/**
+	 * Compresses the specified data using the level and strategy of the specified profile, priming the compressor with the specified 
+	 * preset dictionary. The dictionary's ID is recorded in the result so that {@link #decompressData(CompressedData)} can find it if 
+	 * it is {@link CompressionDictionary#register(CompressionDictionary) registered}.
+	 * 
+	 * <p>The data is stored uncompressed instead if no dictionary is given and it is shorter than {@link #MIN_COMPRESS_LENGTH} or its 
+	 * sampled entropy exceeds {@link #MAX_COMPRESS_ENTROPY}, or if deflating it does not make it smaller. See 
+	 * {@link CompressedData#stored}.
+	 * 
+	 * @param data The data to compress.
+	 * @param profile The compression profile.
+	 * @param dict The preset dictionary. Can be <code>null</code>.
+	 * @param trimResult Whether to trim the data array of the result to the compressed length.
+	 */
+	public static CompressedData compressData(byte[] data, CompressionProfile profile, CompressionDictionary dict, boolean trimResult) {
+		if (dict == null && data.length < MIN_COMPRESS_LENGTH) {
+			storedSmallCount.incrementAndGet();
+			return store(data);
+		}
+		if (dict == null && entropy(data, 0, Math.min(data.length, ENTROPY_SAMPLE_SIZE)) > MAX_COMPRESS_ENTROPY) {
+			storedEntropyCount.incrementAndGet();
+			return store(data);
+		}
+		
 		// sometimes compression can increase the # of bytes for certain combinations of small strings.
-		byte[] output = new byte[data.length*2];
-		Deflater comp = new Deflater(Deflater.BEST_COMPRESSION);
-		comp.setInput(data);
-		comp.finish();
-		int cdataLen = comp.deflate(output);
-		comp.end();
+		byte[] output = new byte[maxCompressedLength(data.length)];
+		int cdataLen = deflate(data, 0, data.length, output, 0, profile, dict);
+		if (cdataLen >= data.length) {
+			storedExpandedCount.incrementAndGet();
+			return store(data);
+		}
+		compressedCount.incrementAndGet();
 		if (trimResult) {
 			output = Arrays.copyOf(output, cdataLen);
 		}
-		CompressedData cdata = new CompressedData(output, cdataLen, data.length);
+		int dictId = dict == null ? CompressionDictionary.NO_DICTIONARY : dict.getId();
+		CompressedData cdata = new CompressedData(output, cdataLen, data.length, dictId);
 		return cdata;
 	}
 	
+	public static CompressedData compressData(byte[] data, Codec codec) {
+		return compressData(data, codec, false);
+	}
+	
+	/**
+	 * Compresses the specified data with the specified codec, e.g. {@link Codecs#LZ} where speed matters more than ratio. The data is 
+	 * stored uncompressed instead if the codec does not make it smaller.
+	 * 
+	 * @param data The data to compress.
+	 * @param codec The codec to compress with.
+	 * @param trimResult Whether to trim the data array of the result to the compressed length.
+	 */
+	public static CompressedData compressData(byte[] data, Codec codec, boolean trimResult) {
+		byte[] output = new byte[codec.maxCompressedLength(data.length)];
+		int cdataLen = codec.compress(data, 0, data.length, output, 0);
+		if (cdataLen >= data.length && codec.getId() != Codecs.STORED_ID) {
+			storedExpandedCount.incrementAndGet();
+			return store(data);
+		}
+		compressedCount.incrementAndGet();
+		if (trimResult) {
+			output = Arrays.copyOf(output, cdataLen);
+		}
+		return new CompressedData(output, cdataLen, data.length, CompressionDictionary.NO_DICTIONARY, codec.getId());
+	}
+	
+	/**
+	 * Compresses the specified data with the cheapest profile that is expected to reach the specified ratio. See 
+	 * {@link #selectProfile(byte[], double)}.
+	 * 
+	 * @param data The data to compress.
+	 * @param targetRatio The desired ratio of original length to compressed length, e.g. 3.0.
+	 */
+	public static CompressedData compressAdaptive(byte[] data, double targetRatio) {
+		return compressData(data, selectProfile(data, targetRatio), false);
+	}
+	
+	/**
+	 * Selects the cheapest profile that reaches the specified ratio by compressing a prefix of the data of up to 
+	 * {@link #ADAPTIVE_SAMPLE_SIZE} bytes with each profile in turn, from cheapest to most expensive. If no profile reaches the target 
+	 * the one that achieved the best ratio on the sample is returned.
+	 * 
+	 * @param data The data to be compressed.
+	 * @param targetRatio The desired ratio of original length to compressed length, e.g. 3.0.
+	 */
+	public static CompressionProfile selectProfile(byte[] data, double targetRatio) {
+		int sampleLen = Math.min(data.length, ADAPTIVE_SAMPLE_SIZE);
+		if (sampleLen == 0) {
+			return CompressionProfile.FAST;
+		}
+		byte[] output = new byte[maxCompressedLength(sampleLen)];
+		CompressionProfile best = null;
+		double bestRatio = 0;
+		for (CompressionProfile profile : CompressionProfile.values()) {
+			double ratio = (double) sampleLen / deflate(data, 0, sampleLen, output, 0, profile, null);
+			if (ratio >= targetRatio) {
+				return profile;
+			}
+			if (ratio > bestRatio) {
+				best = profile;
+				bestRatio = ratio;
+			}
+		}
+		return best;
+	}
+	
+	private static CompressedData store(byte[] data) {
+		return new CompressedData(data.clone(), data.length, data.length, CompressionDictionary.NO_DICTIONARY, true);
+	}
+	
+	/**
+	 * Returns the order-0 Shannon entropy of the specified bytes in bits per byte, from 0 to 8.
+	 */
+	public static double entropy(byte[] data, int off, int len) {
+		if (len == 0) {
+			return 0;
+		}
+		int[] freq = new int[256];
+		for (int i = off; i < off + len; i++) {
+			freq[data[i] & 0xff]++;
+		}
+		double entropy = 0;
+		for (int f : freq) {
+			if (f > 0) {
+				double p = (double) f / len;
+				entropy -= p * Math.log(p);
+			}
+		}
+		return entropy / Math.log(2);
+	}
+	
+	/**
+	 * Returns a snapshot of how often the <code>compressData</code> methods compressed their input versus stored it, and why.
+	 */
+	public static ModeStats getModeStats() {
+		return new ModeStats(compressedCount.get(), storedSmallCount.get(), storedEntropyCount.get(), storedExpandedCount.get());
+	}
+	
+	/**
+	 * Returns an upper bound on the deflated size of the specified number of bytes.
+	 */
+	public static int maxCompressedLength(int len) {
+		// same bound as zlib's deflateBound() plus some slack for the zlib wrapper.
+		return len + (len >> 12) + (len >> 14) + (len >> 25) + 64;
+	}
+	
+	static int deflate(byte[] data, int off, int len, byte[] output, int outOff, CompressionProfile profile, CompressionDictionary dict) {
+		CodecPool pool = CodecPool.getDefault();
+		Deflater comp = pool.borrowDeflater(profile.getLevel(), profile.getStrategy());
+		try {
+			if (dict != null) {
+				comp.setDictionary(dict.data());
+			}
+			comp.setInput(data, off, len);
+			comp.finish();
+			int cdataLen = 0;
+			while (!comp.finished()) {
+				cdataLen += comp.deflate(output, outOff + cdataLen, output.length - outOff - cdataLen);
+			}
+			return cdataLen;
+		} finally {
+			pool.returnDeflater(comp, profile.getLevel(), profile.getStrategy());
+		}
+	}
+	
+	/**
+	 * Decompresses the specified data. If it was compressed with a preset dictionary, the dictionary must be 
+	 * {@link CompressionDictionary#register(CompressionDictionary) registered}.
+	 * 
+	 * @throws DataFormatException If the data is corrupt or its dictionary is not registered.
+	 */
 	public static byte[] decompressData(CompressedData cdata) throws DataFormatException {
+		return decompressData(cdata, resolveDictionary(cdata));
+	}
+	
+	/**
+	 * Decompresses the specified data using the specified preset dictionary.
+	 * 
+	 * @param cdata The compressed data.
+	 * @param dict The dictionary the data was compressed with. Can be <code>null</code> if none was used.
+	 * 
+	 * @throws DataFormatException If the data is corrupt or was compressed with a different dictionary.
+	 */
+	public static byte[] decompressData(CompressedData cdata, CompressionDictionary dict) throws DataFormatException {
+		checkLengths(cdata.codec, cdata.compressedLength, cdata.originalLength);
+		if (cdata.stored) {
+			return Arrays.copyOf(cdata.data, cdata.originalLength);
+		}
 		byte[] result = new byte[cdata.originalLength];
-		Inflater decomp = new Inflater();
-		decomp.setInput(cdata.data);
-		decomp.inflate(result);
+		decompressData(cdata, dict, result, 0);
 		return result;
 	}
 	
+	/**
+	 * Decompresses the specified data into a caller-supplied array, e.g. a buffer that is reused across calls. If the data was 
+	 * compressed with a preset dictionary, the dictionary must be 
+	 * {@link CompressionDictionary#register(CompressionDictionary) registered}.
+	 * 
+	 * @param cdata The compressed data.
+	 * @param output The array to decompress into. Must have at least {@link CompressedData#originalLength} bytes from the offset.
+	 * @param off The offset in the array at which to start writing.
+	 * 
+	 * @return The number of bytes written, i.e. the original length.
+	 * 
+	 * @throws DataFormatException If the data is corrupt or its dictionary is not registered.
+	 */
+	public static int decompressData(CompressedData cdata, byte[] output, int off) throws DataFormatException {
+		return decompressData(cdata, resolveDictionary(cdata), output, off);
+	}
+	
+	/**
+	 * Decompresses the specified data into a caller-supplied array using the specified preset dictionary.
+	 * 
+	 * @param cdata The compressed data.
+	 * @param dict The dictionary the data was compressed with. Can be <code>null</code> if none was used.
+	 * @param output The array to decompress into. Must have at least {@link CompressedData#originalLength} bytes from the offset.
+	 * @param off The offset in the array at which to start writing.
+	 * 
+	 * @return The number of bytes written, i.e. the original length.
+	 * 
+	 * @throws DataFormatException If the data is corrupt or was compressed with a different dictionary.
+	 */
+	public static int decompressData(CompressedData cdata, CompressionDictionary dict, byte[] output, int off) throws DataFormatException {
+		if (off < 0 || output.length - off < cdata.originalLength) {
+			throw new IllegalArgumentException("Output has " + (output.length - off) + " bytes available but " + cdata.originalLength 
+					+ " are needed");
+		}
+		checkLengths(cdata.codec, cdata.compressedLength, cdata.originalLength);
+		if (cdata.stored) {
+			System.arraycopy(cdata.data, 0, output, off, cdata.originalLength);
+			return cdata.originalLength;
+		}
+		if (cdata.codec != Codecs.DEFLATE_ID) {
+			Codec codec = Codecs.get(cdata.codec);
+			if (codec == null) {
+				throw new DataFormatException("Codec not registered: " + cdata.codec);
+			}
+			return codec.decompress(cdata.data, 0, cdata.compressedLength, output, off, cdata.originalLength);
+		}
+		int dictId = dict == null ? CompressionDictionary.NO_DICTIONARY : dict.getId();
+		if (dictId != cdata.dictionaryId) {
+			throw new DataFormatException("Data was compressed with dictionary " + Integer.toHexString(cdata.dictionaryId) 
+					+ " but dictionary " + Integer.toHexString(dictId) + " was given");
+		}
+		return inflate(cdata.data, 0, cdata.compressedLength, output, off, cdata.originalLength, dict);
+	}
+	
+	/**
+	 * Checks that the lengths of compressed data are consistent, so that corrupt or untrusted data can't make a caller allocate far 
+	 * more than the data could decompress to.
+	 * 
+	 * @throws DataFormatException If a length is negative, stored data has different lengths, or the original length exceeds 
+	 * {@link #MAX_COMPRESSION_RATIO} times the compressed length.
+	 */
+	static void checkLengths(byte codec, int compressedLength, int originalLength) throws DataFormatException {
+		if (compressedLength < 0 || originalLength < 0) {
+			throw new DataFormatException("Negative compressed data length");
+		}
+		if (codec == Codecs.STORED_ID ? compressedLength != originalLength 
+				: originalLength > (long) compressedLength * MAX_COMPRESSION_RATIO + 64) {
+			throw new DataFormatException("Original length " + originalLength + " is impossible for " + compressedLength 
+					+ " compressed bytes");
+		}
+	}
+	
+	static int inflate(byte[] data, int off, int len, byte[] output, int outOff, int originalLength, CompressionDictionary dict) 
+			throws DataFormatException {
+		CodecPool pool = CodecPool.getDefault();
+		Inflater decomp = pool.borrowInflater();
+		try {
+			decomp.setInput(data, off, len);
+			int n = 0;
+			while (n < originalLength && !decomp.finished()) {
+				int r = decomp.inflate(output, outOff + n, originalLength - n);
+				if (r == 0) {
+					if (decomp.needsDictionary() && dict != null) {
+						decomp.setDictionary(dict.data());
+					} else if (decomp.needsInput() || decomp.needsDictionary()) {
+						throw new DataFormatException("Compressed data is truncated or requires a dictionary");
+					}
+				}
+				n += r;
+			}
+			return n;
+		} finally {
+			pool.returnInflater(decomp);
+		}
+	}
+	
+	private static CompressionDictionary resolveDictionary(CompressedData cdata) throws DataFormatException {
+		if (cdata.stored || cdata.dictionaryId == CompressionDictionary.NO_DICTIONARY) {
+			return null;
+		}
+		CompressionDictionary dict = CompressionDictionary.get(cdata.dictionaryId);
+		if (dict == null) {
+			throw new DataFormatException("Dictionary not registered: " + Integer.toHexString(cdata.dictionaryId));
+		}
+		return dict;
+	}
+	
+	/**
+	 * Compresses the remaining bytes of the source buffer into the destination buffer as a zlib stream using the {@link 
+	 * CompressionProfile#BEST} profile. See {@link #compress(ByteBuffer, ByteBuffer, CompressionProfile)}.
+	 */
+	public static int compress(ByteBuffer src, ByteBuffer dst) {
+		return compress(src, dst, CompressionProfile.BEST);
+	}
+	
+	/**
+	 * Compresses the remaining bytes of the source buffer into the destination buffer as a zlib stream. Both buffers may be heap or 
+	 * direct. Heap buffers are handed to the deflater directly; direct buffers are moved through a small per-thread scratch array in 
+	 * chunks, since {@link Deflater} only accepts arrays on Java 8. The positions of both buffers are advanced.
+	 * 
+	 * @return The number of compressed bytes written to the destination.
+	 * 
+	 * @throws BufferOverflowException If the destination is too small, see {@link #maxCompressedLength(int)}.
+	 */
+	public static int compress(ByteBuffer src, ByteBuffer dst, CompressionProfile profile) {
+		int start = dst.position();
+		byte[][] scratch = BUFFER_SCRATCH.get();
+		CodecPool pool = CodecPool.getDefault();
+		Deflater comp = pool.borrowDeflater(profile.getLevel(), profile.getStrategy());
+		try {
+			boolean finishing = false;
+			if (src.hasArray()) {
+				comp.setInput(src.array(), src.arrayOffset() + src.position(), src.remaining());
+				src.position(src.limit());
+			}
+			while (!comp.finished()) {
+				if (!finishing && comp.needsInput()) {
+					if (src.hasRemaining()) {
+						int len = Math.min(src.remaining(), scratch[0].length);
+						src.get(scratch[0], 0, len);
+						comp.setInput(scratch[0], 0, len);
+					} else {
+						comp.finish();
+						finishing = true;
+					}
+				}
+				if (!dst.hasRemaining()) {
+					throw new BufferOverflowException();
+				}
+				if (dst.hasArray()) {
+					int n = comp.deflate(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+					dst.position(dst.position() + n);
+				} else {
+					int n = comp.deflate(scratch[1], 0, Math.min(dst.remaining(), scratch[1].length));
+					dst.put(scratch[1], 0, n);
+				}
+			}
+			return dst.position() - start;
+		} finally {
+			pool.returnDeflater(comp, profile.getLevel(), profile.getStrategy());
+		}
+	}
+	
+	/**
+	 * Decompresses a zlib stream from the remaining bytes of the source buffer into the destination buffer. Both buffers may be heap 
+	 * or direct; direct buffers are moved through a small per-thread scratch array in chunks. The positions of both buffers are 
+	 * advanced; the source is left positioned after the end of the stream.
+	 * 
+	 * @return The number of decompressed bytes written to the destination.
+	 * 
+	 * @throws BufferOverflowException If the destination is too small.
+	 * @throws DataFormatException If the source is not a complete zlib stream or requires a dictionary.
+	 */
+	public static int decompress(ByteBuffer src, ByteBuffer dst) throws DataFormatException {
+		int start = dst.position();
+		byte[][] scratch = BUFFER_SCRATCH.get();
+		CodecPool pool = CodecPool.getDefault();
+		Inflater decomp = pool.borrowInflater();
+		try {
+			int fed = 0;
+			if (src.hasArray()) {
+				fed = src.remaining();
+				decomp.setInput(src.array(), src.arrayOffset() + src.position(), fed);
+			}
+			while (!decomp.finished()) {
+				if (decomp.needsDictionary()) {
+					throw new DataFormatException("Compressed data requires a dictionary");
+				}
+				if (decomp.needsInput()) {
+					if (src.hasArray() || !src.hasRemaining()) {
+						throw new DataFormatException("Compressed data is truncated");
+					}
+					fed = Math.min(src.remaining(), scratch[0].length);
+					src.get(scratch[0], 0, fed);
+					decomp.setInput(scratch[0], 0, fed);
+				}
+				if (!dst.hasRemaining()) {
+					throw new BufferOverflowException();
+				}
+				if (dst.hasArray()) {
+					int n = decomp.inflate(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+					dst.position(dst.position() + n);
+				} else {
+					int n = decomp.inflate(scratch[1], 0, Math.min(dst.remaining(), scratch[1].length));
+					dst.put(scratch[1], 0, n);
+				}
+			}
+			// leave the source positioned right after the stream.
+			int unused = decomp.getRemaining();
+			if (src.hasArray()) {
+				src.position(src.position() + fed - unused);
+			} else {
+				src.position(src.position() - unused);
+			}
+			return dst.position() - start;
+		} finally {
+			pool.returnInflater(decomp);
+		}
+	}
+	
 	public static class CompressedData implements Serializable {
 		private static final long serialVersionUID = 1L;
 		
 		public final byte[] data;
 		public final int compressedLength;
 		public final int originalLength;
+		/**
+		 * The ID of the {@link CompressionDictionary} the data was compressed with or {@link CompressionDictionary#NO_DICTIONARY}.
+		 */
+		public final int dictionaryId;
+		/**
+		 * Whether the data is stored uncompressed because compressing it would not pay off. Decompressing stored data is a copy.
+		 */
+		public final boolean stored;
+		/**
+		 * The ID of the {@link Codec} that produced the data. Data serialized before codecs were recorded reads as 
+		 * {@link Codecs#DEFLATE_ID}.
+		 */
+		public final byte codec;
 		
 		public CompressedData(byte[] data, int compressedLength, int originalLength) {
+			this(data, compressedLength, originalLength, CompressionDictionary.NO_DICTIONARY);
+		}
+		
+		public CompressedData(byte[] data, int compressedLength, int originalLength, int dictionaryId) {
+			this(data, compressedLength, originalLength, dictionaryId, false);
+		}
+		
+		public CompressedData(byte[] data, int compressedLength, int originalLength, int dictionaryId, boolean stored) {
+			this(data, compressedLength, originalLength, dictionaryId, stored ? Codecs.STORED_ID : Codecs.DEFLATE_ID);
+		}
+		
+		public CompressedData(byte[] data, int compressedLength, int originalLength, int dictionaryId, byte codec) {
 			this.data = data;
 			this.compressedLength = compressedLength;
 			this.originalLength = originalLength;
+			this.dictionaryId = dictionaryId;
+			this.codec = codec;
+			this.stored = codec == Codecs.STORED_ID;
+		}
+		
+		/**
+		 * Returns the number of bytes {@link #writeTo(ByteBuffer)} writes for this data.
+		 */
+		public int encodedLength() {
+			return 2 + varIntLength(this.originalLength) + varIntLength(this.compressedLength) + varIntLength(this.dictionaryId) + 4 
+					+ this.compressedLength;
+		}
+		
+		/**
+		 * Writes this data to the specified buffer in a compact binary format, as an alternative to Java serialization. Only the first 
+		 * {@link #compressedLength} bytes of {@link #data} are written. The format is:
+		 * <pre>
+		 * byte version, byte codec, varint originalLength, varint compressedLength, varint dictionaryId, int crc32, byte[compressedLength]
+		 * </pre>
+		 * where the codec is the {@link Codec#getId() codec ID} and the CRC-32 covers the header fields before it and the compressed 
+		 * bytes.
+		 * 
+		 * @throws java.nio.BufferOverflowException If the buffer has less than {@link #encodedLength()} bytes remaining.
+		 */
+		public void writeTo(ByteBuffer buf) {
+			int start = buf.position();
+			buf.put(WIRE_VERSION);
+			buf.put(this.codec);
+			putVarInt(buf, this.originalLength);
+			putVarInt(buf, this.compressedLength);
+			putVarInt(buf, this.dictionaryId);
+			CRC32 crc = new CRC32();
+			crc.update(headerBytes(buf, start));
+			crc.update(this.data, 0, this.compressedLength);
+			buf.putInt((int) crc.getValue());
+			buf.put(this.data, 0, this.compressedLength);
+		}
+		
+		/**
+		 * Returns this data in the format written by {@link #writeTo(ByteBuffer)}.
+		 */
+		public byte[] toBytes() {
+			byte[] bytes = new byte[this.encodedLength()];
+			this.writeTo(ByteBuffer.wrap(bytes));
+			return bytes;
+		}
+		
+		/**
+		 * Reads data written by {@link #writeTo(ByteBuffer)} from the current position of the specified buffer, advancing the position 
+		 * past it. The returned data array is exactly {@link #compressedLength} long.
+		 * 
+		 * @throws DataFormatException If the buffer does not contain valid data or the checksum does not match.
+		 */
+		public static CompressedData readFrom(ByteBuffer buf) throws DataFormatException {
+			try {
+				int start = buf.position();
+				byte version = buf.get();
+				if (version != WIRE_VERSION && version != WIRE_VERSION_PAYLOAD_CRC) {
+					throw new DataFormatException("Unsupported compressed data version: " + version);
+				}
+				byte codec = buf.get();
+				if (Codecs.get(codec) == null) {
+					throw new DataFormatException("Unknown codec: " + codec);
+				}
+				int originalLength = getVarInt(buf);
+				int compressedLength = getVarInt(buf);
+				int dictionaryId = getVarInt(buf);
+				ByteBuffer header = headerBytes(buf, start);
+				int expectedCrc = buf.getInt();
+				if (compressedLength < 0 || compressedLength > buf.remaining()) {
+					throw new DataFormatException("Corrupt compressed data header");
+				}
+				checkLengths(codec, compressedLength, originalLength);
+				byte[] data = new byte[compressedLength];
+				buf.get(data);
+				CRC32 crc = new CRC32();
+				if (version != WIRE_VERSION_PAYLOAD_CRC) {
+					crc.update(header);
+				}
+				crc.update(data, 0, compressedLength);
+				if ((int) crc.getValue() != expectedCrc) {
+					throw new DataFormatException("Compressed data checksum mismatch");
+				}
+				return new CompressedData(data, compressedLength, originalLength, dictionaryId, codec);
+			} catch (BufferUnderflowException e) {
+				throw new DataFormatException("Compressed data truncated");
+			}
+		}
+		
+		/**
+		 * Reads data in the format written by {@link #writeTo(ByteBuffer)}.
+		 * 
+		 * @throws DataFormatException If the bytes are not valid data or the checksum does not match.
+		 */
+		public static CompressedData fromBytes(byte[] bytes) throws DataFormatException {
+			return readFrom(ByteBuffer.wrap(bytes));
+		}
+		
+		/**
+		 * Returns the bytes of the specified buffer from the specified position to its current position.
+		 */
+		private static ByteBuffer headerBytes(ByteBuffer buf, int start) {
+			ByteBuffer header = buf.duplicate();
+			header.limit(buf.position());
+			header.position(start);
+			return header;
+		}
+	}
+	
+	private static final byte WIRE_VERSION = 2;
+	/**
+	 * The first version of the wire format, whose CRC-32 covers only the compressed bytes. It is still read.
+	 */
+	private static final byte WIRE_VERSION_PAYLOAD_CRC = 1;
+	
+	static int varIntLength(int v) {
+		int len = 1;
+		while ((v & ~0x7F) != 0) {
+			v >>>= 7;
+			len++;
+		}
+		return len;
+	}
+	
+	/**
+	 * Writes the specified value as an unsigned LEB128 varint, 1 to 5 bytes.
+	 */
+	static void putVarInt(ByteBuffer buf, int v) {
+		while ((v & ~0x7F) != 0) {
+			buf.put((byte) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		buf.put((byte) v);
+	}
+	
+	static int getVarInt(ByteBuffer buf) throws DataFormatException {
+		int v = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = buf.get();
+			v |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				return v;
+			}
+		}
+		throw new DataFormatException("Malformed varint");
+	}
+	
+	/**
+	 * Counts of the paths taken by the {@link CompressionUtils} <code>compressData</code> methods.
+	 */
+	public static class ModeStats {
+		
+		public final long compressed;
+		public final long storedTooSmall;
+		public final long storedHighEntropy;
+		public final long storedNoGain;
+		
+		public ModeStats(long compressed, long storedTooSmall, long storedHighEntropy, long storedNoGain) {
+			this.compressed = compressed;
+			this.storedTooSmall = storedTooSmall;
+			this.storedHighEntropy = storedHighEntropy;
+			this.storedNoGain = storedNoGain;
+		}
+		
+		public long getStored() {
+			return this.storedTooSmall + this.storedHighEntropy + this.storedNoGain;
+		}
+		
+		@Override
+		public String toString() {
+			return "compressed=" + this.compressed + ", stored (too small)=" + this.storedTooSmall + ", stored (high entropy)=" 
+					+ this.storedHighEntropy + ", stored (no gain)=" + this.storedNoGain;
 		}
 	}
 	
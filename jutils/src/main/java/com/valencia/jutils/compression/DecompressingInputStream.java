@@ -0,0 +1,201 @@
+/**
+ *
+ */
+package com.valencia.jutils.compression;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * An input stream that decompresses data written by {@link CompressingOutputStream}. Frames are inflated one at a time into a buffer
+ * sized from the chunk size recorded in the stream header, so memory use is bounded regardless of the total amount of data.
+ *
+ * @author Gabriel Valencia, gee4vee@me.com
+ */
+public class DecompressingInputStream extends FilterInputStream {
+
+	private final DataInputStream din;
+	private final Inflater inflater = new Inflater();
+	private final CRC32 crc = new CRC32();
+	private byte[] chunk;
+	private byte[] compressed;
+	private int chunkPos = 0;
+	private int chunkLen = 0;
+	private boolean eof = false;
+	private boolean closed = false;
+
+	/**
+	 * Returns a new decompressing stream that reads frames from the specified stream.
+	 */
+	public DecompressingInputStream(InputStream in) {
+		super(in);
+		this.din = new DataInputStream(in);
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!this.fill()) {
+			return -1;
+		}
+		return this.chunk[this.chunkPos++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if ((off | len | (off + len) | (b.length - (off + len))) < 0) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0) {
+			return 0;
+		}
+		int total = 0;
+		while (total < len) {
+			if (this.chunkPos == this.chunkLen && total > 0) {
+				// don't block on the next frame if we already have something to return.
+				break;
+			}
+			if (!this.fill()) {
+				break;
+			}
+			int n = Math.min(len - total, this.chunkLen - this.chunkPos);
+			System.arraycopy(this.chunk, this.chunkPos, b, off + total, n);
+			this.chunkPos += n;
+			total += n;
+		}
+		return total == 0 ? -1 : total;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = 0;
+		while (skipped < n && this.fill()) {
+			int s = (int) Math.min(n - skipped, this.chunkLen - this.chunkPos);
+			this.chunkPos += s;
+			skipped += s;
+		}
+		return skipped;
+	}
+
+	@Override
+	public int available() throws IOException {
+		this.ensureOpen();
+		return this.chunkLen - this.chunkPos;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit) {
+	}
+
+	@Override
+	public synchronized void reset() throws IOException {
+		throw new IOException("mark/reset not supported");
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (this.closed) {
+			return;
+		}
+		this.closed = true;
+		this.inflater.end();
+		this.din.close();
+	}
+
+	private void ensureOpen() throws IOException {
+		if (this.closed) {
+			throw new IOException("Stream closed");
+		}
+	}
+
+	/**
+	 * Makes sure there is unread data in the current chunk, reading the next frame if necessary. Returns <code>false</code> if the
+	 * end of the compressed stream was reached.
+	 */
+	private boolean fill() throws IOException {
+		this.ensureOpen();
+		while (this.chunkPos == this.chunkLen) {
+			if (this.eof) {
+				return false;
+			}
+			if (this.chunk == null) {
+				this.readHeader();
+			}
+			this.readFrame();
+		}
+		return true;
+	}
+
+	private void readHeader() throws IOException {
+		int magic = this.din.readInt();
+		if (magic != CompressingOutputStream.MAGIC) {
+			throw new IOException("Not a compressed stream: bad magic " + Integer.toHexString(magic));
+		}
+		byte version = this.din.readByte();
+		if (version != CompressingOutputStream.VERSION) {
+			throw new IOException("Unsupported compressed stream version: " + version);
+		}
+		int chunkSize = this.din.readInt();
+		if (chunkSize <= 0 || chunkSize > CompressingOutputStream.MAX_CHUNK_SIZE) {
+			throw new IOException("Invalid chunk size: " + chunkSize);
+		}
+		this.chunk = new byte[chunkSize];
+		this.compressed = new byte[CompressionUtils.maxCompressedLength(chunkSize)];
+	}
+
+	private void readFrame() throws IOException {
+		int origLen;
+		try {
+			origLen = this.din.readInt();
+		} catch (EOFException e) {
+			throw new EOFException("Compressed stream truncated: missing end marker");
+		}
+		if (origLen == 0) {
+			this.eof = true;
+			this.chunkPos = this.chunkLen = 0;
+			return;
+		}
+		int cLen = this.din.readInt();
+		int expectedCrc = this.din.readInt();
+		if (origLen < 0 || origLen > this.chunk.length || cLen < 0 || cLen > this.compressed.length) {
+			throw new IOException("Corrupt frame: originalLength=" + origLen + ", compressedLength=" + cLen);
+		}
+		this.din.readFully(this.compressed, 0, cLen);
+
+		this.inflater.reset();
+		this.inflater.setInput(this.compressed, 0, cLen);
+		int n = 0;
+		try {
+			while (n < origLen && !this.inflater.finished()) {
+				int r = this.inflater.inflate(this.chunk, n, origLen - n);
+				if (r == 0 && (this.inflater.needsInput() || this.inflater.needsDictionary())) {
+					break;
+				}
+				n += r;
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt frame data", e);
+		}
+		if (n != origLen) {
+			throw new IOException("Corrupt frame: expected " + origLen + " bytes but inflated " + n);
+		}
+		this.crc.reset();
+		this.crc.update(this.chunk, 0, n);
+		if ((int) this.crc.getValue() != expectedCrc) {
+			throw new IOException("Corrupt frame: checksum mismatch");
+		}
+		this.chunkPos = 0;
+		this.chunkLen = n;
+	}
+
+}
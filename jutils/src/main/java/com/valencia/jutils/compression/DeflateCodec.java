@@ -0,0 +1,53 @@
+/**
+ *
+ */
+package com.valencia.jutils.compression;
+
+import java.util.zip.DataFormatException;
+
+/**
+ * The deflate {@link Codec}, backed by the pooled deflaters and inflaters of {@link CodecPool}.
+ *
+ * @author Gabriel Valencia, gee4vee@me.com
+ */
+public class DeflateCodec implements Codec {
+
+	private final CompressionProfile profile;
+
+	/**
+	 * Returns a new codec that compresses with the specified profile.
+	 */
+	public DeflateCodec(CompressionProfile profile) {
+		this.profile = profile;
+	}
+
+	public CompressionProfile getProfile() {
+		return this.profile;
+	}
+
+	@Override
+	public byte getId() {
+		return Codecs.DEFLATE_ID;
+	}
+
+	@Override
+	public String getName() {
+		return "deflate";
+	}
+
+	@Override
+	public int maxCompressedLength(int len) {
+		return CompressionUtils.maxCompressedLength(len);
+	}
+
+	@Override
+	public int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+		return CompressionUtils.deflate(src, srcOff, srcLen, dst, dstOff, this.profile, null);
+	}
+
+	@Override
+	public int decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int originalLength) throws DataFormatException {
+		return CompressionUtils.inflate(src, srcOff, srcLen, dst, dstOff, originalLength, null);
+	}
+
+}
@@ -0,0 +1,247 @@
+/**
+ *
+ */
+package com.valencia.jutils.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+
+import com.valencia.jutils.compression.CompressionUtils.CompressedData;
+
+/**
+ * Compresses a new version of some data against a previous version, so that only what changed has to be stored. Bases of up to 32K are
+ * used as a deflate preset dictionary. Larger bases are indexed in fixed-size blocks and the new version is encoded as a sequence of
+ * copies from the base and inserted literals, which is then deflated.
+ *
+ * <p>The checksum and length of the base are recorded in the result, and reconstruction against a different base fails instead of
+ * producing garbage.
+ *
+ * @author Gabriel Valencia, gee4vee@me.com
+ */
+public class DeltaCompression {
+
+	/**
+	 * The largest base used as a preset dictionary, which is the deflate window size.
+	 */
+	private static final int MAX_DICTIONARY_BASE = 32 * 1024;
+
+	/**
+	 * The length of the base blocks indexed for matching. Matches shorter than this are not found.
+	 */
+	private static final int BLOCK_LEN = 16;
+
+	private static final int HASH_MULT = 0x01000193;
+
+	private static final byte OP_INSERT = 0;
+	private static final byte OP_COPY = 1;
+
+	/**
+	 * Compresses the target against the base with the {@link CompressionProfile#DEFAULT} profile.
+	 */
+	public static DeltaData compressDelta(byte[] base, byte[] target) {
+		return compressDelta(base, target, CompressionProfile.DEFAULT);
+	}
+
+	/**
+	 * Compresses the target against the base.
+	 *
+	 * @param base The previous version.
+	 * @param target The new version.
+	 * @param profile The profile used to deflate the result.
+	 */
+	public static DeltaData compressDelta(byte[] base, byte[] target, CompressionProfile profile) {
+		int baseCrc = crc(base, 0, base.length);
+		int targetCrc = crc(target, 0, target.length);
+		if (base.length > 0 && base.length <= MAX_DICTIONARY_BASE) {
+			CompressedData cdata = CompressionUtils.compressData(target, profile, new CompressionDictionary(base), true);
+			return new DeltaData(DeltaData.MODE_DICTIONARY, base.length, baseCrc, targetCrc, cdata);
+		}
+		byte[] ops = diff(base, target);
+		CompressedData cdata = CompressionUtils.compressData(ops, profile, true);
+		return new DeltaData(DeltaData.MODE_DIFF, base.length, baseCrc, targetCrc, cdata);
+	}
+
+	/**
+	 * Reconstructs the target from the base and the delta.
+	 *
+	 * @throws DataFormatException If the base is not the one the delta was computed against or the delta is corrupt.
+	 */
+	public static byte[] decompressDelta(byte[] base, DeltaData delta) throws DataFormatException {
+		if (base.length != delta.baseLength || crc(base, 0, base.length) != delta.baseChecksum) {
+			throw new DataFormatException("Base does not match the base the delta was computed against");
+		}
+		byte[] target;
+		if (delta.mode == DeltaData.MODE_DICTIONARY) {
+			target = CompressionUtils.decompressData(delta.data, new CompressionDictionary(base));
+		} else if (delta.mode == DeltaData.MODE_DIFF) {
+			target = patch(base, CompressionUtils.decompressData(delta.data, (CompressionDictionary) null));
+		} else {
+			throw new DataFormatException("Unknown delta mode: " + delta.mode);
+		}
+		if (crc(target, 0, target.length) != delta.targetChecksum) {
+			throw new DataFormatException("Reconstructed data checksum mismatch");
+		}
+		return target;
+	}
+
+	/**
+	 * Encodes the target as copies from the base and literal inserts:
+	 * <pre>
+	 * insert: byte 0, varint length, byte[length]
+	 * copy:   byte 1, varint length, varint baseOffset
+	 * </pre>
+	 */
+	private static byte[] diff(byte[] base, byte[] target) {
+		// index the start of every base block by its hash. later blocks with the same hash replace earlier ones.
+		int blocks = base.length / BLOCK_LEN;
+		int tableSize = Integer.highestOneBit(Math.max(1, blocks) * 2 - 1) << 1;
+		int mask = tableSize - 1;
+		int[] table = new int[tableSize];
+		for (int b = 0; b < blocks; b++) {
+			table[hash(base, b * BLOCK_LEN) & mask] = b + 1;
+		}
+		int multPow = 1;
+		for (int i = 0; i < BLOCK_LEN; i++) {
+			multPow *= HASH_MULT;
+		}
+
+		ByteArrayOutputStream ops = new ByteArrayOutputStream(Math.max(32, target.length / 8));
+		int literalStart = 0;
+		int i = 0;
+		int h = target.length >= BLOCK_LEN ? hash(target, 0) : 0;
+		while (i + BLOCK_LEN <= target.length) {
+			int candidate = blocks > 0 ? table[h & mask] - 1 : -1;
+			if (candidate >= 0) {
+				int p = candidate * BLOCK_LEN;
+				int fwd = 0;
+				while (i + fwd < target.length && p + fwd < base.length && target[i + fwd] == base[p + fwd]) {
+					fwd++;
+				}
+				if (fwd >= BLOCK_LEN) {
+					// extend backwards into the pending literals.
+					int back = 0;
+					while (i - back > literalStart && p - back > 0 && target[i - back - 1] == base[p - back - 1]) {
+						back++;
+					}
+					writeInsert(ops, target, literalStart, i - back - literalStart);
+					ops.write(OP_COPY);
+					writeVarInt(ops, fwd + back);
+					writeVarInt(ops, p - back);
+					i += fwd;
+					literalStart = i;
+					if (i + BLOCK_LEN <= target.length) {
+						h = hash(target, i);
+					}
+					continue;
+				}
+			}
+			// roll the hash one byte forward.
+			if (i + BLOCK_LEN < target.length) {
+				h = h * HASH_MULT + (target[i + BLOCK_LEN] & 0xff) - (target[i] & 0xff) * multPow;
+			}
+			i++;
+		}
+		writeInsert(ops, target, literalStart, target.length - literalStart);
+		return ops.toByteArray();
+	}
+
+	private static byte[] patch(byte[] base, byte[] ops) throws DataFormatException {
+		ByteArrayOutputStream target = new ByteArrayOutputStream(base.length);
+		ByteBuffer buf = ByteBuffer.wrap(ops);
+		try {
+			while (buf.hasRemaining()) {
+				byte op = buf.get();
+				int len = CompressionUtils.getVarInt(buf);
+				if (len < 0) {
+					throw new DataFormatException("Corrupt delta: negative length");
+				}
+				if (op == OP_INSERT) {
+					if (len > buf.remaining()) {
+						throw new DataFormatException("Corrupt delta: insert past end");
+					}
+					target.write(ops, buf.position(), len);
+					buf.position(buf.position() + len);
+				} else if (op == OP_COPY) {
+					int off = CompressionUtils.getVarInt(buf);
+					if (off < 0 || off > base.length - len) {
+						throw new DataFormatException("Corrupt delta: copy outside base");
+					}
+					target.write(base, off, len);
+				} else {
+					throw new DataFormatException("Corrupt delta: unknown op " + op);
+				}
+			}
+		} catch (BufferUnderflowException e) {
+			throw new DataFormatException("Corrupt delta: truncated");
+		}
+		return target.toByteArray();
+	}
+
+	private static void writeInsert(ByteArrayOutputStream ops, byte[] target, int off, int len) {
+		if (len > 0) {
+			ops.write(OP_INSERT);
+			writeVarInt(ops, len);
+			ops.write(target, off, len);
+		}
+	}
+
+	private static void writeVarInt(ByteArrayOutputStream out, int v) {
+		while ((v & ~0x7F) != 0) {
+			out.write((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		out.write(v);
+	}
+
+	private static int hash(byte[] b, int off) {
+		int h = 0;
+		for (int i = 0; i < BLOCK_LEN; i++) {
+			h = h * HASH_MULT + (b[off + i] & 0xff);
+		}
+		return h;
+	}
+
+	private static int crc(byte[] b, int off, int len) {
+		CRC32 crc = new CRC32();
+		crc.update(b, off, len);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * The result of {@link DeltaCompression#compressDelta(byte[], byte[])}.
+	 */
+	public static class DeltaData implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		public static final byte MODE_DICTIONARY = 0;
+		public static final byte MODE_DIFF = 1;
+
+		/**
+		 * How the target was encoded: {@link #MODE_DICTIONARY} or {@link #MODE_DIFF}.
+		 */
+		public final byte mode;
+		public final int baseLength;
+		/**
+		 * The CRC-32 of the base.
+		 */
+		public final int baseChecksum;
+		/**
+		 * The CRC-32 of the target.
+		 */
+		public final int targetChecksum;
+		public final CompressedData data;
+
+		public DeltaData(byte mode, int baseLength, int baseChecksum, int targetChecksum, CompressedData data) {
+			this.mode = mode;
+			this.baseLength = baseLength;
+			this.baseChecksum = baseChecksum;
+			this.targetChecksum = targetChecksum;
+			this.data = data;
+		}
+	}
+
+}
@@ -0,0 +1,233 @@
+/**
+ *
+ */
+package com.valencia.jutils.compression;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+
+/**
+ * A fast, dependency-free LZ77 {@link Codec} that produces the LZ4 block format. It trades ratio for speed: compression uses a single
+ * hash probe per position and decompression is a tight loop of array copies with no entropy decoding, so it is typically several
+ * times faster than deflate in both directions.
+ *
+ * <p>The data is a sequence of:
+ * <pre>
+ * byte token (literal length in the high 4 bits, match length - 4 in the low 4 bits), [literal length extension],
+ * byte[] literals, short matchOffset (little endian), [match length extension]
+ * </pre>
+ * where a length of 15 in the token is extended by following bytes that are added to it until one is less than 255. The last
+ * sequence holds only literals.
+ *
+ * @author Gabriel Valencia, gee4vee@me.com
+ */
+public class LZCodec implements Codec {
+
+	private static final int MIN_MATCH = 4;
+	private static final int LAST_LITERALS = 5;
+	private static final int MF_LIMIT = 12;
+	private static final int MAX_OFFSET = 65535;
+	private static final int HASH_LOG = 12;
+	private static final int SKIP_TRIGGER = 6;
+
+	private static final ThreadLocal<int[]> hashTables = ThreadLocal.withInitial(() -> new int[1 << HASH_LOG]);
+
+	@Override
+	public byte getId() {
+		return Codecs.LZ_ID;
+	}
+
+	@Override
+	public String getName() {
+		return "lz";
+	}
+
+	@Override
+	public int maxCompressedLength(int len) {
+		return len + len / 255 + 16;
+	}
+
+	@Override
+	public int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+		int end = srcOff + srcLen;
+		int anchor = srcOff;
+		int op = dstOff;
+
+		if (srcLen >= MF_LIMIT + 1) {
+			int[] table = hashTables.get();
+			Arrays.fill(table, -1);
+			int mfLimit = end - MF_LIMIT;
+			int matchLimit = end - LAST_LITERALS;
+			int ip = srcOff;
+			int searches = 1 << SKIP_TRIGGER;
+			while (ip < mfLimit) {
+				int seq = readInt(src, ip);
+				int h = hash(seq);
+				int ref = table[h];
+				table[h] = ip;
+				if (ref < srcOff || ref >= ip || ip - ref > MAX_OFFSET || readInt(src, ref) != seq) {
+					// no match. skip ahead faster the longer we go without one, which speeds up incompressible data.
+					ip += searches++ >>> SKIP_TRIGGER;
+					continue;
+				}
+				searches = 1 << SKIP_TRIGGER;
+
+				while (ip > anchor && ref > srcOff && src[ip - 1] == src[ref - 1]) {
+					ip--;
+					ref--;
+				}
+				int matchLen = MIN_MATCH;
+				while (ip + matchLen < matchLimit && src[ip + matchLen] == src[ref + matchLen]) {
+					matchLen++;
+				}
+
+				op = this.writeSequence(src, anchor, ip - anchor, dst, op, ip - ref, matchLen);
+				ip += matchLen;
+				anchor = ip;
+				if (ip < mfLimit) {
+					// index a position inside the match so that runs keep matching.
+					table[hash(readInt(src, ip - 2))] = ip - 2;
+				}
+			}
+		}
+
+		// last literals.
+		int litLen = end - anchor;
+		op = writeLength(dst, op, litLen, 4);
+		System.arraycopy(src, anchor, dst, op, litLen);
+		return op + litLen - dstOff;
+	}
+
+	private int writeSequence(byte[] src, int litOff, int litLen, byte[] dst, int op, int offset, int matchLen) {
+		int tokenPos = op;
+		op = writeLength(dst, op, litLen, 4);
+		System.arraycopy(src, litOff, dst, op, litLen);
+		op += litLen;
+		dst[op++] = (byte) offset;
+		dst[op++] = (byte) (offset >>> 8);
+		int ml = matchLen - MIN_MATCH;
+		if (ml >= 15) {
+			dst[tokenPos] |= 15;
+			op = writeExtension(dst, op, ml - 15);
+		} else {
+			dst[tokenPos] |= ml;
+		}
+		return op;
+	}
+
+	/**
+	 * Writes a token with the specified length in the specified nibble, followed by any length extension bytes.
+	 */
+	private static int writeLength(byte[] dst, int op, int len, int shift) {
+		if (len >= 15) {
+			dst[op++] = (byte) (15 << shift);
+			return writeExtension(dst, op, len - 15);
+		}
+		dst[op++] = (byte) (len << shift);
+		return op;
+	}
+
+	private static int writeExtension(byte[] dst, int op, int rem) {
+		while (rem >= 255) {
+			dst[op++] = (byte) 255;
+			rem -= 255;
+		}
+		dst[op++] = (byte) rem;
+		return op;
+	}
+
+	@Override
+	public int decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int originalLength) throws DataFormatException {
+		int ip = srcOff;
+		int end = srcOff + srcLen;
+		int op = dstOff;
+		int oend = dstOff + originalLength;
+		if (srcOff < 0 || dstOff < 0 || originalLength < 0 || srcLen <= 0 || end > src.length || oend > dst.length) {
+			throw new DataFormatException("Invalid LZ input or output range");
+		}
+		while (true) {
+			int token = src[ip++] & 0xff;
+
+			int litLen = token >>> 4;
+			if (litLen == 15) {
+				int b;
+				do {
+					if (ip >= end) {
+						throw new DataFormatException("Corrupt LZ data: truncated literal length");
+					}
+					b = src[ip++] & 0xff;
+					litLen += b;
+					// checked on each byte so that a long run of extension bytes can't overflow the length.
+					if (litLen > oend - op) {
+						throw new DataFormatException("Corrupt LZ data: literals out of bounds");
+					}
+				} while (b == 255);
+			}
+			if (litLen > end - ip || litLen > oend - op) {
+				throw new DataFormatException("Corrupt LZ data: literals out of bounds");
+			}
+			System.arraycopy(src, ip, dst, op, litLen);
+			ip += litLen;
+			op += litLen;
+			if (ip == end) {
+				break;
+			}
+
+			if (end - ip < 2) {
+				throw new DataFormatException("Corrupt LZ data: truncated offset");
+			}
+			int offset = (src[ip] & 0xff) | ((src[ip + 1] & 0xff) << 8);
+			ip += 2;
+			int ref = op - offset;
+			if (offset == 0 || ref < dstOff) {
+				throw new DataFormatException("Corrupt LZ data: invalid match offset " + offset);
+			}
+
+			int matchLen = token & 15;
+			if (matchLen == 15) {
+				int b;
+				do {
+					if (ip >= end) {
+						throw new DataFormatException("Corrupt LZ data: truncated match length");
+					}
+					b = src[ip++] & 0xff;
+					matchLen += b;
+					if (matchLen > oend - op) {
+						throw new DataFormatException("Corrupt LZ data: match out of bounds");
+					}
+				} while (b == 255);
+			}
+			matchLen += MIN_MATCH;
+			if (matchLen > oend - op) {
+				throw new DataFormatException("Corrupt LZ data: match out of bounds");
+			}
+			if (offset >= matchLen) {
+				System.arraycopy(dst, ref, dst, op, matchLen);
+				op += matchLen;
+			} else {
+				// overlapping match, e.g. a run. copy forward one byte at a time so it repeats.
+				int mend = op + matchLen;
+				while (op < mend) {
+					dst[op++] = dst[ref++];
+				}
+			}
+			if (ip >= end) {
+				// the encoder always ends with a literals-only sequence, so the input can't end right after a match.
+				throw new DataFormatException("Corrupt LZ data: truncated after match");
+			}
+		}
+		if (op != oend) {
+			throw new DataFormatException("Corrupt LZ data: expected " + originalLength + " bytes but decoded " + (op - dstOff));
+		}
+		return originalLength;
+	}
+
+	private static int readInt(byte[] b, int i) {
+		return (b[i] & 0xff) | ((b[i + 1] & 0xff) << 8) | ((b[i + 2] & 0xff) << 16) | ((b[i + 3] & 0xff) << 24);
+	}
+
+	private static int hash(int seq) {
+		return (seq * -1640531535) >>> (32 - HASH_LOG);
+	}
+
+}
@@ -0,0 +1,284 @@
+/**
+ *
+ */
+package com.valencia.jutils.compression;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses data on multiple cores, similar to pigz. The input is split into fixed-size blocks which are deflated concurrently on a
+ * {@link ForkJoinPool}, and each block is written as a separate gzip member. The result is a valid multi-member gzip file that can be
+ * read by <code>gunzip</code> or {@link GZIPInputStream}.
+ *
+ * <p>Each member carries a "JU" extra field holding its own length and its uncompressed length, which lets {@link #decompress(byte[])}
+ * locate the members without inflating them and decompress them concurrently as well. Gzip data without that field is decompressed
+ * sequentially.
+ *
+ * @author Gabriel Valencia, gee4vee@me.com
+ */
+public class ParallelGzip {
+
+	public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+	private static final int GZIP_MAGIC = 0x8b1f;
+	private static final int FEXTRA = 4;
+	private static final int HEADER_LEN = 24;
+	private static final int TRAILER_LEN = 8;
+
+	/**
+	 * Compresses the specified data with the default block size and level on the common pool.
+	 */
+	public static byte[] compress(byte[] data) {
+		return compress(data, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Compresses the specified data into a multi-member gzip byte array.
+	 *
+	 * @param data The data to compress.
+	 * @param blockSize The number of uncompressed bytes in each gzip member.
+	 * @param level The deflate compression level.
+	 * @param pool The pool on which the blocks are compressed.
+	 */
+	public static byte[] compress(byte[] data, int blockSize, int level, ForkJoinPool pool) {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(data.length / 2 + HEADER_LEN + TRAILER_LEN);
+		try {
+			compress(data, blockSize, level, pool, baos);
+		} catch (IOException e) {
+			// not thrown by ByteArrayOutputStream.
+			throw new IllegalStateException(e);
+		}
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Compresses the specified data and writes the gzip members to the specified stream in order. The stream is not closed.
+	 *
+	 * @param data The data to compress.
+	 * @param blockSize The number of uncompressed bytes in each gzip member.
+	 * @param level The deflate compression level.
+	 * @param pool The pool on which the blocks are compressed.
+	 * @param out The stream to which the gzip data is written.
+	 *
+	 * @throws IOException
+	 */
+	public static void compress(byte[] data, int blockSize, int level, ForkJoinPool pool, OutputStream out) throws IOException {
+		if (blockSize <= 0) {
+			throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+		}
+		List<ForkJoinTask<byte[]>> tasks = new ArrayList<>();
+		int off = 0;
+		do {
+			final int blockOff = off;
+			final int blockLen = Math.min(blockSize, data.length - off);
+			tasks.add(pool.submit(() -> compressMember(data, blockOff, blockLen, level)));
+			off += blockLen;
+		} while (off < data.length);
+
+		for (ForkJoinTask<byte[]> task : tasks) {
+			out.write(task.join());
+		}
+	}
+
+	private static byte[] compressMember(byte[] data, int off, int len, int level) {
+		byte[] member = new byte[HEADER_LEN + CompressionUtils.maxCompressedLength(len) + TRAILER_LEN];
+		Deflater def = new Deflater(level, true);
+		int cLen = 0;
+		try {
+			def.setInput(data, off, len);
+			def.finish();
+			while (!def.finished()) {
+				cLen += def.deflate(member, HEADER_LEN + cLen, member.length - HEADER_LEN - TRAILER_LEN - cLen);
+			}
+		} finally {
+			def.end();
+		}
+		CRC32 crc = new CRC32();
+		crc.update(data, off, len);
+		int memberLen = HEADER_LEN + cLen + TRAILER_LEN;
+
+		member[0] = (byte) 0x1f;
+		member[1] = (byte) 0x8b;
+		member[2] = Deflater.DEFLATED;
+		member[3] = FEXTRA;
+		// mtime (4 bytes) and xfl are left 0.
+		member[9] = (byte) 0xff; // OS unknown
+		putShortLE(member, 10, 12);
+		member[12] = 'J';
+		member[13] = 'U';
+		putShortLE(member, 14, 8);
+		putIntLE(member, 16, memberLen);
+		putIntLE(member, 20, len);
+		putIntLE(member, HEADER_LEN + cLen, (int) crc.getValue());
+		putIntLE(member, HEADER_LEN + cLen + 4, len);
+
+		if (memberLen == member.length) {
+			return member;
+		}
+		byte[] result = new byte[memberLen];
+		System.arraycopy(member, 0, result, 0, memberLen);
+		return result;
+	}
+
+	/**
+	 * Decompresses the specified gzip data on the common pool.
+	 *
+	 * @throws IOException If the data is not valid gzip data.
+	 */
+	public static byte[] decompress(byte[] gz) throws IOException {
+		return decompress(gz, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Decompresses the specified gzip data. If every member was produced by this class the members are inflated concurrently on the
+	 * specified pool, otherwise the data is decompressed sequentially.
+	 *
+	 * @throws IOException If the data is not valid gzip data.
+	 */
+	public static byte[] decompress(byte[] gz, ForkJoinPool pool) throws IOException {
+		if (gz.length == 0) {
+			throw new IOException("Not in GZIP format: empty input");
+		}
+		List<int[]> members = new ArrayList<>();
+		long total = 0;
+		int pos = 0;
+		while (pos < gz.length) {
+			int[] member = readMemberIndex(gz, pos);
+			if (member == null) {
+				return decompressSequential(gz);
+			}
+			members.add(member);
+			total += member[2];
+			pos += member[1];
+		}
+		if (total > Integer.MAX_VALUE - 8) {
+			throw new IOException("Decompressed data too large for a byte array: " + total);
+		}
+
+		byte[] result = new byte[(int) total];
+		List<ForkJoinTask<?>> tasks = new ArrayList<>(members.size());
+		int outOff = 0;
+		for (int[] member : members) {
+			final int memberOutOff = outOff;
+			tasks.add(pool.submit(() -> {
+				inflateMember(gz, member, result, memberOutOff);
+				return null;
+			}));
+			outOff += member[2];
+		}
+		for (ForkJoinTask<?> task : tasks) {
+			try {
+				task.join();
+			} catch (RuntimeException e) {
+				// the pool wraps the IOException, and may rethrow a copy of the wrapper from another thread, so look for the original.
+				for (Throwable t = e.getCause(); t != null; t = t.getCause()) {
+					if (t instanceof IOException) {
+						throw (IOException) t;
+					}
+				}
+				throw e;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns <code>{offset, memberLength, originalLength}</code> for the member at the specified offset, or <code>null</code> if the
+	 * member does not carry our extra field.
+	 */
+	private static int[] readMemberIndex(byte[] gz, int pos) throws IOException {
+		if (gz.length - pos < HEADER_LEN + TRAILER_LEN) {
+			return null;
+		}
+		if (getShortLE(gz, pos) != GZIP_MAGIC) {
+			throw new IOException("Not in GZIP format at offset " + pos);
+		}
+		if (gz[pos + 3] != FEXTRA || getShortLE(gz, pos + 10) != 12 || gz[pos + 12] != 'J' || gz[pos + 13] != 'U'
+				|| getShortLE(gz, pos + 14) != 8) {
+			return null;
+		}
+		int memberLen = getIntLE(gz, pos + 16);
+		int origLen = getIntLE(gz, pos + 20);
+		if (memberLen < HEADER_LEN + TRAILER_LEN || memberLen > gz.length - pos || origLen < 0) {
+			throw new IOException("Corrupt gzip member at offset " + pos);
+		}
+		return new int[] { pos, memberLen, origLen };
+	}
+
+	private static void inflateMember(byte[] gz, int[] member, byte[] out, int outOff) throws IOException {
+		int pos = member[0];
+		int memberLen = member[1];
+		int origLen = member[2];
+		Inflater inf = new Inflater(true);
+		try {
+			// include the trailer so the inflater always has the extra byte it may need in nowrap mode.
+			inf.setInput(gz, pos + HEADER_LEN, memberLen - HEADER_LEN);
+			int n = 0;
+			while (n < origLen && !inf.finished()) {
+				int r = inf.inflate(out, outOff + n, origLen - n);
+				if (r == 0 && inf.needsInput()) {
+					break;
+				}
+				n += r;
+			}
+			if (n != origLen) {
+				throw new IOException("Corrupt gzip member at offset " + pos + ": expected " + origLen + " bytes but inflated " + n);
+			}
+			CRC32 crc = new CRC32();
+			crc.update(out, outOff, origLen);
+			int trailer = pos + memberLen - TRAILER_LEN;
+			if (getIntLE(gz, trailer) != (int) crc.getValue() || getIntLE(gz, trailer + 4) != origLen) {
+				throw new IOException("Corrupt gzip member at offset " + pos + ": trailer mismatch");
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt gzip member at offset " + pos, e);
+		} finally {
+			inf.end();
+		}
+	}
+
+	private static byte[] decompressSequential(byte[] gz) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(gz.length * 2);
+		try (GZIPInputStream gis = new GZIPInputStream(new ByteArrayInputStream(gz))) {
+			byte[] buf = new byte[64 * 1024];
+			int n;
+			while ((n = gis.read(buf)) != -1) {
+				baos.write(buf, 0, n);
+			}
+		}
+		return baos.toByteArray();
+	}
+
+	private static void putShortLE(byte[] b, int off, int v) {
+		b[off] = (byte) v;
+		b[off + 1] = (byte) (v >>> 8);
+	}
+
+	private static void putIntLE(byte[] b, int off, int v) {
+		b[off] = (byte) v;
+		b[off + 1] = (byte) (v >>> 8);
+		b[off + 2] = (byte) (v >>> 16);
+		b[off + 3] = (byte) (v >>> 24);
+	}
+
+	private static int getShortLE(byte[] b, int off) {
+		return (b[off] & 0xff) | ((b[off + 1] & 0xff) << 8);
+	}
+
+	private static int getIntLE(byte[] b, int off) {
+		return (b[off] & 0xff) | ((b[off + 1] & 0xff) << 8) | ((b[off + 2] & 0xff) << 16) | ((b[off + 3] & 0xff) << 24);
+	}
+
+}
@@ -0,0 +1,234 @@
+/**
+ *
+ */
+package com.valencia.jutils.compression;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads arbitrary ranges of a container written by {@link SeekableCompressedWriter} without decompressing it from the start. Only the
+ * blocks that overlap the requested range are read and inflated, and each block's checksum is verified when it is inflated. The most
+ * recently inflated block is cached so that sequential small reads do not inflate the same block repeatedly.
+ *
+ * <p>Instances are safe for use by multiple threads.
+ *
+ * @author Gabriel Valencia, gee4vee@me.com
+ */
+public class SeekableCompressedReader implements Closeable {
+
+	private final FileChannel channel;
+	private final int blockSize;
+	private final long[] offsets;
+	private final int[] compressedLengths;
+	private final int[] originalLengths;
+	private final int[] crcs;
+	private final boolean[] stored;
+	private final long length;
+
+	private int cachedBlock = -1;
+	private byte[] cachedData;
+
+	/**
+	 * Opens the container in the specified file.
+	 *
+	 * @throws IOException If the file cannot be read or is not a valid container.
+	 */
+	public SeekableCompressedReader(Path file) throws IOException {
+		this(FileChannel.open(file, StandardOpenOption.READ));
+	}
+
+	/**
+	 * Opens the container in the specified channel. The channel is closed when this reader is closed, or by this constructor if it
+	 * fails.
+	 *
+	 * @throws IOException If the channel cannot be read or does not contain a valid container.
+	 */
+	public SeekableCompressedReader(FileChannel channel) throws IOException {
+		this.channel = channel;
+		try {
+			long size = channel.size();
+			if (size < SeekableCompressedWriter.HEADER_LEN + SeekableCompressedWriter.TRAILER_LEN) {
+				throw new IOException("Not a seekable compressed container: too short");
+			}
+			ByteBuffer header = this.readFully(0, SeekableCompressedWriter.HEADER_LEN);
+			if (header.getInt() != SeekableCompressedWriter.MAGIC) {
+				throw new IOException("Not a seekable compressed container: bad magic");
+			}
+			byte version = header.get();
+			if (version != SeekableCompressedWriter.VERSION) {
+				throw new IOException("Unsupported seekable compressed container version: " + version);
+			}
+
+			ByteBuffer trailer = this.readFully(size - SeekableCompressedWriter.TRAILER_LEN, SeekableCompressedWriter.TRAILER_LEN);
+			long indexOffset = trailer.getLong();
+			int blockCount = trailer.getInt();
+			this.blockSize = trailer.getInt();
+			long indexLen = (long) blockCount * SeekableCompressedWriter.INDEX_ENTRY_LEN;
+			if (trailer.getInt() != SeekableCompressedWriter.MAGIC || blockCount < 0 || this.blockSize <= 0
+					|| indexOffset < SeekableCompressedWriter.HEADER_LEN || indexLen > Integer.MAX_VALUE
+					|| indexOffset + indexLen != size - SeekableCompressedWriter.TRAILER_LEN) {
+				throw new IOException("Corrupt seekable compressed container trailer");
+			}
+
+			ByteBuffer index = this.readFully(indexOffset, (int) indexLen);
+			this.offsets = new long[blockCount];
+			this.compressedLengths = new int[blockCount];
+			this.originalLengths = new int[blockCount];
+			this.crcs = new int[blockCount];
+			this.stored = new boolean[blockCount];
+			long total = 0;
+			// blocks are written one after the other, so each must start at or after the end of the previous one.
+			long blockEnd = SeekableCompressedWriter.HEADER_LEN;
+			for (int i = 0; i < blockCount; i++) {
+				this.offsets[i] = index.getLong();
+				this.compressedLengths[i] = index.getInt();
+				this.originalLengths[i] = index.getInt();
+				this.crcs[i] = index.getInt();
+				this.stored[i] = index.get() != 0;
+				if (this.originalLengths[i] > this.blockSize || (i < blockCount - 1 && this.originalLengths[i] != this.blockSize)
+						|| this.originalLengths[i] < 0 || this.compressedLengths[i] < 0
+						|| this.offsets[i] < blockEnd || this.offsets[i] > indexOffset - this.compressedLengths[i]
+						|| (this.stored[i] && this.compressedLengths[i] != this.originalLengths[i])) {
+					throw new IOException("Corrupt seekable compressed container index at block " + i);
+				}
+				blockEnd = this.offsets[i] + this.compressedLengths[i];
+				total += this.originalLengths[i];
+			}
+			this.length = total;
+		} catch (IOException | RuntimeException e) {
+			try {
+				channel.close();
+			} catch (IOException suppressed) {
+				e.addSuppressed(suppressed);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the total uncompressed length of the container.
+	 */
+	public long length() {
+		return this.length;
+	}
+
+	/**
+	 * Returns the number of blocks in the container.
+	 */
+	public int getBlockCount() {
+		return this.offsets.length;
+	}
+
+	/**
+	 * Reads the specified range of uncompressed data.
+	 *
+	 * @param offset The offset into the uncompressed data.
+	 * @param len The number of bytes to read.
+	 *
+	 * @throws EOFException If the range extends past the end of the data.
+	 * @throws IOException If the container cannot be read or a block is corrupt.
+	 */
+	public byte[] read(long offset, int len) throws IOException {
+		byte[] result = new byte[len];
+		this.read(offset, result, 0, len);
+		return result;
+	}
+
+	/**
+	 * Reads the specified range of uncompressed data into the specified array.
+	 *
+	 * @param offset The offset into the uncompressed data.
+	 * @param b The array into which to read.
+	 * @param off The offset in the array at which to start writing.
+	 * @param len The number of bytes to read.
+	 *
+	 * @throws EOFException If the range extends past the end of the data.
+	 * @throws IOException If the container cannot be read or a block is corrupt.
+	 */
+	public void read(long offset, byte[] b, int off, int len) throws IOException {
+		if ((off | len | (off + len) | (b.length - (off + len))) < 0 || offset < 0) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (offset + len > this.length) {
+			throw new EOFException("Range " + offset + "+" + len + " extends past the end of the data at " + this.length);
+		}
+		while (len > 0) {
+			int blockIndex = (int) (offset / this.blockSize);
+			int blockOff = (int) (offset % this.blockSize);
+			byte[] data = this.block(blockIndex);
+			int n = Math.min(len, this.originalLengths[blockIndex] - blockOff);
+			System.arraycopy(data, blockOff, b, off, n);
+			offset += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+
+	private synchronized byte[] block(int blockIndex) throws IOException {
+		if (blockIndex == this.cachedBlock) {
+			return this.cachedData;
+		}
+		ByteBuffer raw = this.readFully(this.offsets[blockIndex], this.compressedLengths[blockIndex]);
+		int origLen = this.originalLengths[blockIndex];
+		byte[] data;
+		if (this.stored[blockIndex]) {
+			data = raw.array();
+		} else {
+			data = new byte[origLen];
+			CodecPool pool = CodecPool.getDefault();
+			Inflater inf = pool.borrowInflater();
+			try {
+				inf.setInput(raw.array(), 0, raw.limit());
+				int n = 0;
+				while (n < origLen && !inf.finished()) {
+					int r = inf.inflate(data, n, origLen - n);
+					if (r == 0 && (inf.needsInput() || inf.needsDictionary())) {
+						break;
+					}
+					n += r;
+				}
+				if (n != origLen) {
+					throw new IOException("Corrupt block " + blockIndex + ": expected " + origLen + " bytes but inflated " + n);
+				}
+			} catch (DataFormatException e) {
+				throw new IOException("Corrupt block " + blockIndex, e);
+			} finally {
+				pool.returnInflater(inf);
+			}
+		}
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, origLen);
+		if ((int) crc.getValue() != this.crcs[blockIndex]) {
+			throw new IOException("Corrupt block " + blockIndex + ": checksum mismatch");
+		}
+		this.cachedBlock = blockIndex;
+		this.cachedData = data;
+		return data;
+	}
+
+	private ByteBuffer readFully(long position, int len) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(len);
+		while (buf.hasRemaining()) {
+			if (this.channel.read(buf, position + buf.position()) < 0) {
+				throw new EOFException("Unexpected end of container at " + (position + buf.position()));
+			}
+		}
+		buf.flip();
+		return buf;
+	}
+
+}
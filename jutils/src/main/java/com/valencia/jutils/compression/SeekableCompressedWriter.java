@@ -0,0 +1,180 @@
+/**
+ *
+ */
+package com.valencia.jutils.compression;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a seekable compressed container that can be read with {@link SeekableCompressedReader}. The data is split into blocks of a
+ * fixed uncompressed size, each compressed independently, and an index of the blocks is written at the end so that a reader can
+ * decompress just the blocks covering the range it needs.
+ *
+ * <p>The format is:
+ * <pre>
+ * header:  int magic, byte version
+ * blocks:  byte[] data, one per block
+ * index:   per block: long offset, int compressedLength, int originalLength, int crc32, byte stored
+ * trailer: long indexOffset, int blockCount, int blockSize, int magic
+ * </pre>
+ * The CRC-32 covers the uncompressed block. A block that does not shrink when deflated is stored as is.
+ *
+ * @author Gabriel Valencia, gee4vee@me.com
+ */
+public class SeekableCompressedWriter extends OutputStream {
+
+	static final int MAGIC = 0x4A55534B; // "JUSK"
+	static final byte VERSION = 1;
+	static final int HEADER_LEN = 5;
+	static final int INDEX_ENTRY_LEN = 21;
+	static final int TRAILER_LEN = 20;
+
+	public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+	private final DataOutputStream out;
+	private final CompressionProfile profile;
+	private final CRC32 crc = new CRC32();
+	private final byte[] block;
+	private final byte[] compressed;
+	private final List<long[]> index = new ArrayList<>();
+	private int blockLen = 0;
+	private long offset = 0;
+	private boolean closed = false;
+
+	/**
+	 * Returns a new writer with the default block size and profile.
+	 */
+	public SeekableCompressedWriter(OutputStream out) throws IOException {
+		this(out, DEFAULT_BLOCK_SIZE, CompressionProfile.DEFAULT);
+	}
+
+	/**
+	 * Returns a new writer.
+	 *
+	 * @param out The stream to which the container is written. It is closed when this writer is closed.
+	 * @param blockSize The uncompressed size of each block. Smaller blocks make random reads cheaper but compress worse.
+	 * @param profile The compression profile used for each block.
+	 *
+	 * @throws IOException If the header cannot be written.
+	 */
+	public SeekableCompressedWriter(OutputStream out, int blockSize, CompressionProfile profile) throws IOException {
+		if (blockSize <= 0) {
+			throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+		}
+		this.out = new DataOutputStream(out);
+		this.profile = profile;
+		this.block = new byte[blockSize];
+		this.compressed = new byte[CompressionUtils.maxCompressedLength(blockSize)];
+		this.out.writeInt(MAGIC);
+		this.out.writeByte(VERSION);
+		this.offset = HEADER_LEN;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		this.ensureOpen();
+		if (this.blockLen == this.block.length) {
+			this.writeBlock();
+		}
+		this.block[this.blockLen++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		this.ensureOpen();
+		if ((off | len | (off + len) | (b.length - (off + len))) < 0) {
+			throw new IndexOutOfBoundsException();
+		}
+		while (len > 0) {
+			if (this.blockLen == this.block.length) {
+				this.writeBlock();
+			}
+			int n = Math.min(len, this.block.length - this.blockLen);
+			System.arraycopy(b, off, this.block, this.blockLen, n);
+			this.blockLen += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Flushes the underlying stream. Buffered data is not written as a partial block since that would break the fixed block size the
+	 * reader relies on for seeking.
+	 */
+	@Override
+	public void flush() throws IOException {
+		this.out.flush();
+	}
+
+	/**
+	 * Writes the last block, the index and the trailer, and closes the underlying stream.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (this.closed) {
+			return;
+		}
+		this.closed = true;
+		try {
+			if (this.blockLen > 0) {
+				this.writeBlock();
+			}
+			long indexOffset = this.offset;
+			for (long[] entry : this.index) {
+				this.out.writeLong(entry[0]);
+				this.out.writeInt((int) entry[1]);
+				this.out.writeInt((int) entry[2]);
+				this.out.writeInt((int) entry[3]);
+				this.out.writeByte((int) entry[4]);
+			}
+			this.out.writeLong(indexOffset);
+			this.out.writeInt(this.index.size());
+			this.out.writeInt(this.block.length);
+			this.out.writeInt(MAGIC);
+		} finally {
+			this.out.close();
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (this.closed) {
+			throw new IOException("Stream closed");
+		}
+	}
+
+	private void writeBlock() throws IOException {
+		this.crc.reset();
+		this.crc.update(this.block, 0, this.blockLen);
+
+		CodecPool pool = CodecPool.getDefault();
+		Deflater def = pool.borrowDeflater(this.profile.getLevel(), this.profile.getStrategy());
+		int cLen = 0;
+		try {
+			def.setInput(this.block, 0, this.blockLen);
+			def.finish();
+			while (!def.finished()) {
+				cLen += def.deflate(this.compressed, cLen, this.compressed.length - cLen);
+			}
+		} finally {
+			pool.returnDeflater(def, this.profile.getLevel(), this.profile.getStrategy());
+		}
+
+		boolean stored = cLen >= this.blockLen;
+		if (stored) {
+			this.out.write(this.block, 0, this.blockLen);
+			cLen = this.blockLen;
+		} else {
+			this.out.write(this.compressed, 0, cLen);
+		}
+		this.index.add(new long[] { this.offset, cLen, this.blockLen, (int) this.crc.getValue(), stored ? 1 : 0 });
+		this.offset += cLen;
+		this.blockLen = 0;
+	}
+
+}
@@ -0,0 +1,245 @@
+/**
+ * 
+ */
+package com.valencia.jutils.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.StreamCorruptedException;
+import java.io.UTFDataFormatException;
+
+/**
+ * Reads objects written by {@link BinaryObjectOutput}. Objects written with Java serialization are read with a 
+ * {@link CachingObjectInputStream}.
+ * 
+ * @author Gabriel Valencia, gee4vee@me.com
+ */
+public class BinaryObjectInput extends DataInputStream {
+	
+	private final DeserializationFilter filter;
+	private final LimitedInputStream limited;
+	private int depth;
+	private SharedFeed sharedFeed;
+	private ObjectInputStream sharedJava;
+	
+	public BinaryObjectInput(InputStream in) {
+		this(in, null);
+	}
+	
+	/**
+	 * @param filter The filter that the objects read must pass, or <code>null</code> for none.
+	 */
+	public BinaryObjectInput(InputStream in, DeserializationFilter filter) {
+		super(filter == null || filter.maxBytes <= 0 ? in : new LimitedInputStream(in, filter.maxBytes));
+		this.filter = filter;
+		this.limited = filter == null || filter.maxBytes <= 0 ? null : (LimitedInputStream) this.in;
+	}
+	
+	/**
+	 * Reads a tag and the object encoded after it.
+	 * 
+	 * @throws StreamCorruptedException If the tag is not registered.
+	 * @throws IOException
+	 * @throws ClassNotFoundException If an object written with Java serialization is of an unknown class.
+	 */
+	public Object readObject() throws IOException, ClassNotFoundException {
+		byte tag = this.readByte();
+		if (tag == TypeCodecs.NULL_TAG) {
+			return null;
+		}
+		if (this.filter != null) {
+			this.filter.checkDepth(this.depth + 1);
+		}
+		this.depth++;
+		try {
+			return this.readTagged(tag);
+		} finally {
+			this.depth--;
+		}
+	}
+	
+	private Object readTagged(byte tag) throws IOException, ClassNotFoundException {
+		if (tag == TypeCodecs.JAVA_TAG) {
+			byte[] bytes = new byte[this.readPayloadLength()];
+			this.readFully(bytes);
+			try (ObjectInputStream ois = new CachingObjectInputStream(new ByteArrayInputStream(bytes), null, this.filter)) {
+				return ois.readObject();
+			}
+		}
+		if (tag == TypeCodecs.SHARED_JAVA_TAG) {
+			return this.readShared();
+		}
+		TypeCodec<?> codec = TypeCodecs.get(tag);
+		if (codec == null) {
+			throw new StreamCorruptedException("Unknown type codec tag: " + (tag & 0xff));
+		}
+		if (this.filter != null && (tag & 0xff) >= TypeCodecs.FIRST_USER_TAG) {
+			this.filter.checkClass(codec.getType());
+		}
+		return codec.read(this);
+	}
+	
+	/**
+	 * Reads the next chunk of the shared object stream and the object in it.
+	 */
+	private Object readShared() throws IOException, ClassNotFoundException {
+		byte[] chunk = new byte[this.readPayloadLength()];
+		this.readFully(chunk);
+		if (this.sharedFeed == null) {
+			this.sharedFeed = new SharedFeed();
+			this.sharedFeed.add(chunk);
+			// the first chunk starts with the stream header, which the object stream reads when created.
+			this.sharedJava = new CachingObjectInputStream(this.sharedFeed, null, this.filter);
+		} else {
+			this.sharedFeed.add(chunk);
+		}
+		return this.sharedJava.readObject();
+	}
+	
+	/**
+	 * Reads an int written by {@link BinaryObjectOutput#writeVarInt(int)}.
+	 * 
+	 * @throws IOException
+	 */
+	public int readVarInt() throws IOException {
+		int v = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = this.readUnsignedByte();
+			v |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return v;
+			}
+		}
+		throw new StreamCorruptedException("Malformed varint");
+	}
+	
+	/**
+	 * Reads a long written by {@link BinaryObjectOutput#writeVarLong(long)}.
+	 * 
+	 * @throws IOException
+	 */
+	public long readVarLong() throws IOException {
+		long v = 0;
+		for (int shift = 0; shift < 70; shift += 7) {
+			int b = this.readUnsignedByte();
+			v |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return (v >>> 1) ^ -(v & 1);
+			}
+		}
+		throw new StreamCorruptedException("Malformed varlong");
+	}
+	
+	/**
+	 * Reads the varint length of an array, string or collection and checks that it is not negative and within the filter's limit.
+	 * 
+	 * @throws InvalidObjectException If the length exceeds the filter's limit.
+	 * @throws IOException
+	 */
+	public int readLength() throws IOException {
+		int len = this.readVarInt();
+		if (len < 0) {
+			throw new StreamCorruptedException("Negative length: " + len);
+		}
+		if (this.filter != null) {
+			this.filter.checkArrayLength(len);
+		}
+		return len;
+	}
+	
+	/**
+	 * Reads the varint length of an embedded Java serialization payload, checking it against the bytes the filter still allows so 
+	 * that it isn't allocated before the limit is hit.
+	 */
+	private int readPayloadLength() throws IOException {
+		int len = this.readVarInt();
+		if (len < 0) {
+			throw new StreamCorruptedException("Negative length: " + len);
+		}
+		if (this.limited != null && len > this.limited.remaining()) {
+			throw new InvalidObjectException("Serialized data exceeds the limit of " + this.filter.maxBytes + " bytes");
+		}
+		return len;
+	}
+	
+	/**
+	 * Reads a string written by {@link BinaryObjectOutput#writeString(String)}.
+	 * 
+	 * @throws UTFDataFormatException If the bytes are not valid modified UTF-8.
+	 * @throws IOException
+	 */
+	public String readString() throws IOException {
+		byte[] bytes = new byte[this.readLength()];
+		this.readFully(bytes);
+		char[] chars = new char[bytes.length];
+		int n = 0;
+		int i = 0;
+		while (i < bytes.length) {
+			int b = bytes[i] & 0xFF;
+			if (b < 0x80) {
+				chars[n++] = (char) b;
+				i++;
+			} else if ((b & 0xE0) == 0xC0 && i + 1 < bytes.length && (bytes[i + 1] & 0xC0) == 0x80) {
+				chars[n++] = (char) (((b & 0x1F) << 6) | (bytes[i + 1] & 0x3F));
+				i += 2;
+			} else if ((b & 0xF0) == 0xE0 && i + 2 < bytes.length && (bytes[i + 1] & 0xC0) == 0x80 && (bytes[i + 2] & 0xC0) == 0x80) {
+				chars[n++] = (char) (((b & 0x0F) << 12) | ((bytes[i + 1] & 0x3F) << 6) | (bytes[i + 2] & 0x3F));
+				i += 3;
+			} else {
+				throw new UTFDataFormatException("Malformed string at byte " + i);
+			}
+		}
+		return new String(chars, 0, n);
+	}
+	
+	/**
+	 * The bytes of the shared object stream received so far that the object stream has not read yet.
+	 */
+	private static class SharedFeed extends InputStream {
+		
+		private byte[] buf = new byte[0];
+		private int pos;
+		
+		void add(byte[] chunk) {
+			int remaining = this.buf.length - this.pos;
+			if (remaining == 0) {
+				this.buf = chunk;
+			} else {
+				byte[] joined = new byte[remaining + chunk.length];
+				System.arraycopy(this.buf, this.pos, joined, 0, remaining);
+				System.arraycopy(chunk, 0, joined, remaining, chunk.length);
+				this.buf = joined;
+			}
+			this.pos = 0;
+		}
+		
+		@Override
+		public int read() {
+			return this.pos < this.buf.length ? this.buf[this.pos++] & 0xff : -1;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+			int n = Math.min(len, this.buf.length - this.pos);
+			if (n <= 0) {
+				return -1;
+			}
+			System.arraycopy(this.buf, this.pos, b, off, n);
+			this.pos += n;
+			return n;
+		}
+		
+		@Override
+		public int available() {
+			return this.buf.length - this.pos;
+		}
+	}
+
+}
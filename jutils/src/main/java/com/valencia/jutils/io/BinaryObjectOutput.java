@@ -0,0 +1,192 @@
+/**
+ * 
+ */
+package com.valencia.jutils.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Writes objects in the tagged binary format of {@link TypeCodecs}. Objects with a registered {@link TypeCodec} are written by it and 
+ * all others with Java serialization.
+ * 
+ * <p>Unlike Java serialization, an object referenced more than once from objects written by codecs is written once per reference, and 
+ * a cycle of such references is rejected with a {@link NotSerializableException}.
+ * 
+ * <p>By default each object without a codec is written as a separate Java serialization stream, with its own header and class 
+ * descriptors. When many such objects are written to one stream, a shared object stream can be used instead so that each class 
+ * descriptor is written only once. Objects written through a shared stream are also shared between the objects written, like with 
+ * {@link ObjectOutputStream}, so an object modified after it was written is not written again until the stream is reset.
+ * 
+ * @author Gabriel Valencia, gee4vee@me.com
+ */
+public class BinaryObjectOutput extends DataOutputStream {
+	
+	private final int resetInterval;
+	private ReusableByteArrayOutputStream sharedBuf;
+	private ObjectOutputStream sharedJava;
+	private int sharedCount;
+	/**
+	 * The objects written by codecs that are being written, to detect cycles. Created when the first one is written.
+	 */
+	private Map<Object, Boolean> writing;
+	
+	public BinaryObjectOutput(OutputStream out) {
+		this(out, 0);
+	}
+	
+	/**
+	 * @param resetInterval If positive, objects without a codec are written through one shared object stream, which is reset after 
+	 * this many objects to release the objects it references. The stream must then be read with a {@link BinaryObjectInput} that 
+	 * reads all of the objects in order.
+	 */
+	public BinaryObjectOutput(OutputStream out, int resetInterval) {
+		super(out);
+		this.resetInterval = resetInterval;
+	}
+	
+	/**
+	 * Writes the tag of the specified object followed by its encoding.
+	 * 
+	 * @throws NotSerializableException If the object has no codec and is not serializable, or refers back to itself through objects 
+	 * written by codecs.
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	public void writeObject(Object obj) throws IOException {
+		if (obj == null) {
+			this.writeByte(TypeCodecs.NULL_TAG);
+			return;
+		}
+		@SuppressWarnings("rawtypes")
+		TypeCodec codec = TypeCodecs.get(obj.getClass());
+		if (codec != null) {
+			this.writeByte(codec.getTag());
+			if (isLeaf(codec.getTag())) {
+				codec.write(obj, this);
+				return;
+			}
+			if (this.writing == null) {
+				this.writing = new IdentityHashMap<>();
+			}
+			if (this.writing.put(obj, Boolean.TRUE) != null) {
+				throw new NotSerializableException(obj.getClass().getName() + ": cyclic reference, which the binary format does not support");
+			}
+			try {
+				codec.write(obj, this);
+			} finally {
+				this.writing.remove(obj);
+			}
+			return;
+		}
+		if (this.resetInterval > 0) {
+			this.writeShared(obj);
+			return;
+		}
+		this.writeByte(TypeCodecs.JAVA_TAG);
+		// length prefixed so the reader's object stream can't read past the end of it.
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+			oos.writeObject(obj);
+		}
+		this.writeVarInt(baos.size());
+		baos.writeTo(this);
+	}
+	
+	/**
+	 * Returns whether values of the built-in codec with the specified tag cannot contain other objects.
+	 */
+	private static boolean isLeaf(byte tag) {
+		return (tag >= TypeCodecs.STRING_TAG && tag <= TypeCodecs.LONG_ARRAY_TAG) || tag == TypeCodecs.COMPRESSED_DATA_TAG;
+	}
+	
+	/**
+	 * Writes the object through the shared object stream, followed by whatever it wrote since the last object.
+	 */
+	private void writeShared(Object obj) throws IOException {
+		if (this.sharedJava == null) {
+			this.sharedBuf = new ReusableByteArrayOutputStream();
+			this.sharedJava = new ObjectOutputStream(this.sharedBuf);
+		} else if (this.sharedCount % this.resetInterval == 0) {
+			this.sharedJava.reset();
+		}
+		this.sharedJava.writeObject(obj);
+		this.sharedJava.flush();
+		this.sharedCount++;
+		this.writeByte(TypeCodecs.SHARED_JAVA_TAG);
+		this.writeVarInt(this.sharedBuf.size());
+		this.sharedBuf.writeTo(this);
+		this.sharedBuf.reset();
+	}
+	
+	/**
+	 * Writes a non-negative int in 1 to 5 bytes, 7 bits at a time.
+	 * 
+	 * @throws IOException
+	 */
+	public void writeVarInt(int v) throws IOException {
+		while ((v & ~0x7F) != 0) {
+			this.write((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		this.write(v);
+	}
+	
+	/**
+	 * Writes a long in 1 to 10 bytes, with small negative values as short as small positive ones.
+	 * 
+	 * @throws IOException
+	 */
+	public void writeVarLong(long v) throws IOException {
+		v = (v << 1) ^ (v >> 63);
+		while ((v & ~0x7FL) != 0) {
+			this.write((int) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		this.write((int) v);
+	}
+	
+	/**
+	 * Writes the length of the string in bytes followed by the bytes, encoded in modified UTF-8 like {@link #writeUTF(String)} so that 
+	 * any char sequence, including unpaired surrogates, is read back unchanged. Unlike {@link #writeUTF(String)} there is no length 
+	 * limit.
+	 * 
+	 * @throws IOException
+	 */
+	public void writeString(String s) throws IOException {
+		int len = s.length();
+		int utfLen = len;
+		for (int i = 0; i < len; i++) {
+			char c = s.charAt(i);
+			if (c >= 0x800) {
+				utfLen += 2;
+			} else if (c >= 0x80 || c == 0) {
+				utfLen++;
+			}
+		}
+		byte[] bytes = new byte[utfLen];
+		int n = 0;
+		for (int i = 0; i < len; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80 && c != 0) {
+				bytes[n++] = (byte) c;
+			} else if (c < 0x800) {
+				bytes[n++] = (byte) (0xC0 | (c >> 6));
+				bytes[n++] = (byte) (0x80 | (c & 0x3F));
+			} else {
+				bytes[n++] = (byte) (0xE0 | (c >> 12));
+				bytes[n++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				bytes[n++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		this.writeVarInt(utfLen);
+		this.write(bytes);
+	}
+
+}
@@ -0,0 +1,60 @@
+/**
+ * 
+ */
+package com.valencia.jutils.io;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An input stream that reads directly from a {@link ByteBuffer}, heap, direct or mapped, starting at its current position and ending 
+ * at its limit. The buffer's position is advanced past the bytes read.
+ * 
+ * @author Gabriel Valencia, gee4vee@me.com
+ */
+public class ByteBufferInputStream extends InputStream {
+	
+	private final ByteBuffer buf;
+	
+	public ByteBufferInputStream(ByteBuffer buf) {
+		this.buf = buf;
+	}
+	
+	/**
+	 * Returns the buffer this stream reads from.
+	 */
+	public ByteBuffer getBuffer() {
+		return this.buf;
+	}
+	
+	@Override
+	public int read() {
+		return this.buf.hasRemaining() ? this.buf.get() & 0xff : -1;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if (len == 0) {
+			return 0;
+		}
+		if (!this.buf.hasRemaining()) {
+			return -1;
+		}
+		int n = Math.min(len, this.buf.remaining());
+		this.buf.get(b, off, n);
+		return n;
+	}
+	
+	@Override
+	public long skip(long n) {
+		int skipped = (int) Math.max(0, Math.min(n, this.buf.remaining()));
+		this.buf.position(this.buf.position() + skipped);
+		return skipped;
+	}
+	
+	@Override
+	public int available() {
+		return this.buf.remaining();
+	}
+
+}
@@ -0,0 +1,45 @@
+/**
+ * 
+ */
+package com.valencia.jutils.io;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An output stream that writes directly into a {@link ByteBuffer}, heap or direct, starting at its current position.
+ * 
+ * @author Gabriel Valencia, gee4vee@me.com
+ */
+public class ByteBufferOutputStream extends OutputStream {
+	
+	private final ByteBuffer buf;
+	
+	public ByteBufferOutputStream(ByteBuffer buf) {
+		this.buf = buf;
+	}
+	
+	/**
+	 * Returns the buffer this stream writes to.
+	 */
+	public ByteBuffer getBuffer() {
+		return this.buf;
+	}
+	
+	/**
+	 * @throws java.nio.BufferOverflowException If the buffer is full.
+	 */
+	@Override
+	public void write(int b) {
+		this.buf.put((byte) b);
+	}
+	
+	/**
+	 * @throws java.nio.BufferOverflowException If the buffer does not have enough space remaining.
+	 */
+	@Override
+	public void write(byte[] b, int off, int len) {
+		this.buf.put(b, off, len);
+	}
+
+}
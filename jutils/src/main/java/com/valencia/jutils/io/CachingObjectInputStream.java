@@ -0,0 +1,216 @@
+/**
+ * 
+ */
+package com.valencia.jutils.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An object input stream that caches resolved classes per class loader across all instances, so that repeated deserialization of 
+ * the same classes skips the class loader lookup, and that optionally checks classes against a {@link DeserializationFilter}.
+ * 
+ * <p>Classes are resolved and cached only when a class loader is specified, e.g. the context class loader of the current thread. 
+ * Otherwise they are resolved like {@link ObjectInputStream} does, with the latest user-defined loader on the call stack, which 
+ * can't be cached since it depends on the caller.
+ * 
+ * <p>The depth and array length limits of the filter are enforced with the serialization filter of the JVM, 
+ * <code>java.io.ObjectInputFilter</code> on Java 9 and later or <code>sun.misc.ObjectInputFilter</code> on Java 8 update 121 and later. 
+ * The depth is counted from the object read from this stream. On older JVMs, a filter with either limit is rejected.
+ * 
+ * @author Gabriel Valencia, gee4vee@me.com
+ */
+public class CachingObjectInputStream extends ObjectInputStream {
+	
+	/**
+	 * Weakly keyed and valued so that caching classes doesn't keep their loaders from being unloaded.
+	 */
+	private static final Map<ClassLoader, Map<String, WeakReference<Class<?>>>> classCache = Collections.synchronizedMap(
+			new WeakHashMap<>());
+	
+	private final ClassLoader loader;
+	private final DeserializationFilter filter;
+	private final Map<String, WeakReference<Class<?>>> classes;
+	
+	/**
+	 * Returns a new stream that resolves classes like {@link ObjectInputStream} and has no filter.
+	 * 
+	 * @throws IOException If the stream header cannot be read.
+	 */
+	public CachingObjectInputStream(InputStream in) throws IOException {
+		this(in, null, null);
+	}
+	
+	/**
+	 * Returns a new stream.
+	 * 
+	 * @param loader The class loader used to resolve and cache classes, or <code>null</code> to resolve them like 
+	 * {@link ObjectInputStream}.
+	 * @param filter The filter that resolved classes must pass, or <code>null</code> to allow any class.
+	 * 
+	 * @throws InvalidObjectException If the filter has a depth or array length limit that the JVM cannot enforce.
+	 * @throws IOException If the stream header cannot be read.
+	 */
+	public CachingObjectInputStream(InputStream in, ClassLoader loader, DeserializationFilter filter) throws IOException {
+		super(filter == null || filter.maxBytes <= 0 ? in : new LimitedInputStream(in, filter.maxBytes));
+		this.loader = loader;
+		this.filter = filter;
+		this.classes = loader == null ? null : classCache.computeIfAbsent(loader, l -> new ConcurrentHashMap<>());
+		if (filter != null && (filter.maxDepth > 0 || filter.maxArrayLength > 0)) {
+			SerialFilter.install(this, filter);
+		}
+	}
+	
+	@Override
+	protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+		if (this.loader == null) {
+			Class<?> c = super.resolveClass(desc);
+			if (this.filter != null) {
+				this.filter.checkClass(c);
+			}
+			return c;
+		}
+		String name = desc.getName();
+		WeakReference<Class<?>> ref = this.classes.get(name);
+		Class<?> c = ref == null ? null : ref.get();
+		if (c == null) {
+			try {
+				c = Class.forName(name, false, this.loader);
+			} catch (ClassNotFoundException e) {
+				// primitive types are not found by name.
+				c = super.resolveClass(desc);
+			}
+			this.classes.put(name, new WeakReference<>(c));
+		}
+		if (this.filter != null) {
+			this.filter.checkClass(c);
+		}
+		return c;
+	}
+	
+	@Override
+	protected Class<?> resolveProxyClass(String[] interfaces) throws IOException, ClassNotFoundException {
+		Class<?> proxy = super.resolveProxyClass(interfaces);
+		if (this.filter != null) {
+			for (Class<?> i : proxy.getInterfaces()) {
+				this.filter.checkClass(i);
+			}
+		}
+		return proxy;
+	}
+	
+	/**
+	 * Installs the limits of a {@link DeserializationFilter} as the serialization filter of a stream. Neither filter API can be referenced 
+	 * when compiling for Java 8, so they are used reflectively.
+	 */
+	private static class SerialFilter {
+		
+		private static final Class<?> filterType;
+		/**
+		 * Whether the filter is set with methods of the stream, as on Java 9 and later, rather than static methods of the config class.
+		 */
+		private static final boolean streamMethods;
+		private static final Method setFilter;
+		private static final Method getFilter;
+		private static final Method checkInput;
+		private static final Method depth;
+		private static final Method arrayLength;
+		private static final Object allowed;
+		private static final Object rejected;
+		private static final Object undecided;
+		
+		static {
+			Class<?> type = null;
+			boolean onStream = false;
+			Method set = null, get = null, check = null, depthMethod = null, lengthMethod = null;
+			Object[] statuses = new Object[3];
+			for (String name : new String[] { "java.io.ObjectInputFilter", "sun.misc.ObjectInputFilter" }) {
+				try {
+					Class<?> t = Class.forName(name);
+					Class<?> info = Class.forName(name + "$FilterInfo");
+					Class<?> status = Class.forName(name + "$Status");
+					onStream = t.getName().startsWith("java.");
+					if (onStream) {
+						set = ObjectInputStream.class.getMethod("setObjectInputFilter", t);
+						get = ObjectInputStream.class.getMethod("getObjectInputFilter");
+					} else {
+						Class<?> config = Class.forName(name + "$Config");
+						set = config.getMethod("setObjectInputFilter", ObjectInputStream.class, t);
+						get = config.getMethod("getObjectInputFilter", ObjectInputStream.class);
+					}
+					check = t.getMethod("checkInput", info);
+					depthMethod = info.getMethod("depth");
+					lengthMethod = info.getMethod("arrayLength");
+					statuses[0] = status.getField("ALLOWED").get(null);
+					statuses[1] = status.getField("REJECTED").get(null);
+					statuses[2] = status.getField("UNDECIDED").get(null);
+					type = t;
+					break;
+				} catch (ReflectiveOperationException | RuntimeException e) {
+					// not available in this JVM, try the next one.
+				}
+			}
+			filterType = type;
+			streamMethods = onStream;
+			setFilter = set;
+			getFilter = get;
+			checkInput = check;
+			depth = depthMethod;
+			arrayLength = lengthMethod;
+			allowed = statuses[0];
+			rejected = statuses[1];
+			undecided = statuses[2];
+		}
+		
+		static void install(ObjectInputStream ois, DeserializationFilter filter) throws InvalidObjectException {
+			if (filterType == null) {
+				throw new InvalidObjectException("This JVM has no serialization filter to enforce the depth and array length limits");
+			}
+			try {
+				// keep any process-wide filter, and only allow what it allows as well.
+				Object previous = streamMethods ? getFilter.invoke(ois) : getFilter.invoke(null, ois);
+				Object proxy = Proxy.newProxyInstance(filterType.getClassLoader(), new Class<?>[] { filterType }, (p, m, args) -> {
+					if (!m.getName().equals("checkInput")) {
+						return m.getName().equals("equals") ? p == args[0] : m.getName().equals("hashCode") ? System.identityHashCode(p)
+								: filter.toString();
+					}
+					return check(filter, previous, args[0]);
+				});
+				if (streamMethods) {
+					setFilter.invoke(ois, proxy);
+				} else {
+					setFilter.invoke(null, ois, proxy);
+				}
+			} catch (IllegalAccessException | InvocationTargetException e) {
+				InvalidObjectException ex = new InvalidObjectException("Unable to install the serialization filter");
+				ex.initCause(e instanceof InvocationTargetException ? e.getCause() : e);
+				throw ex;
+			}
+		}
+		
+		private static Object check(DeserializationFilter filter, Object previous, Object info) throws ReflectiveOperationException {
+			Object status = previous == null ? undecided : checkInput.invoke(previous, info);
+			if (status == rejected) {
+				return rejected;
+			}
+			long d = (Long) depth.invoke(info);
+			long len = (Long) arrayLength.invoke(info);
+			if ((filter.maxDepth > 0 && d > filter.maxDepth) || (filter.maxArrayLength > 0 && len > filter.maxArrayLength)) {
+				return rejected;
+			}
+			return status == allowed ? allowed : undecided;
+		}
+	}
+
+}
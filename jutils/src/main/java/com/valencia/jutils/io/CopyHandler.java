@@ -0,0 +1,29 @@
+/**
+ * 
+ */
+package com.valencia.jutils.io;
+
+import java.io.IOException;
+
+/**
+ * Makes deep copies of one type for {@link ObjectUtils#deepCopy(Object)}, in place of copying through serialization. Handlers other 
+ * than the built-in ones must be {@link ObjectUtils#registerCopyHandler(Class, CopyHandler) registered}.
+ * 
+ * <p>Implementations must be thread safe.
+ * 
+ * @author Gabriel Valencia, gee4vee@me.com
+ *
+ * @param <T> The type copied.
+ */
+@FunctionalInterface
+public interface CopyHandler<T> {
+	
+	/**
+	 * Returns a deep copy of the specified value, which is never <code>null</code>. Nested values can be copied with 
+	 * {@link ObjectUtils#deepCopy(Object)}.
+	 * 
+	 * @throws IOException If a nested value cannot be copied.
+	 */
+	T copy(T value) throws IOException;
+
+}
@@ -0,0 +1,143 @@
+/**
+ * 
+ */
+package com.valencia.jutils.io;
+
+import java.io.InvalidClassException;
+import java.io.InvalidObjectException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import com.valencia.jutils.compression.CompressionUtils.CompressedData;
+
+/**
+ * Limits what {@link ObjectUtils#deserialize(byte[], Class, DeserializationFilter)} accepts, so that untrusted data cannot instantiate 
+ * arbitrary classes or make it allocate without bound.
+ * 
+ * <p>Classes are allowed by name patterns: a class name, <code>pkg.*</code> for the classes in a package or <code>pkg.**</code> for 
+ * the classes in a package and its subpackages. Arrays are allowed if their component type is, and arrays of primitives always are. 
+ * Types with a built-in {@link TypeCodec} are always allowed, in either format, along with {@link Number}, which the serialized 
+ * form of the boxed numbers refers to, and {@link java.util.LinkedHashMap}, which is always written with Java serialization.
+ * 
+ * <p>The depth and array length limits apply to objects in the binary format of {@link TypeCodecs}, and to Java serialized objects 
+ * through the serialization filter of the JVM as described in {@link CachingObjectInputStream}. The depth of a Java serialized object 
+ * nested in the binary format is counted from that object.
+ * 
+ * @author Gabriel Valencia, gee4vee@me.com
+ */
+public class DeserializationFilter {
+	
+	private static final Set<Class<?>> builtInTypes = new HashSet<>(Arrays.asList(String.class, Boolean.class, Byte.class, 
+			Short.class, Character.class, Integer.class, Long.class, Float.class, Double.class, Number.class, ArrayList.class, 
+			LinkedList.class, HashSet.class, LinkedHashSet.class, HashMap.class, LinkedHashMap.class, CompressedData.class));
+	
+	private final Set<String> classes = new HashSet<>();
+	private final List<String> packages = new ArrayList<>();
+	private final List<String> packageTrees = new ArrayList<>();
+	private final boolean allowAll;
+	
+	public final int maxDepth;
+	public final int maxArrayLength;
+	public final long maxBytes;
+	
+	/**
+	 * Returns a new filter that allows any class and only enforces the limits.
+	 * 
+	 * @param maxDepth The maximum nesting depth of objects, or 0 for no limit.
+	 * @param maxArrayLength The maximum length of arrays, strings and collections, or 0 for no limit.
+	 * @param maxBytes The maximum number of bytes read, or 0 for no limit.
+	 */
+	public DeserializationFilter(int maxDepth, int maxArrayLength, long maxBytes) {
+		this(null, maxDepth, maxArrayLength, maxBytes);
+	}
+	
+	/**
+	 * Returns a new filter.
+	 * 
+	 * @param allowedClasses The patterns of the allowed classes, or <code>null</code> to allow any class.
+	 * @param maxDepth The maximum nesting depth of objects, or 0 for no limit.
+	 * @param maxArrayLength The maximum length of arrays, strings and collections, or 0 for no limit.
+	 * @param maxBytes The maximum number of bytes read, or 0 for no limit.
+	 */
+	public DeserializationFilter(Collection<String> allowedClasses, int maxDepth, int maxArrayLength, long maxBytes) {
+		this.allowAll = allowedClasses == null;
+		if (allowedClasses != null) {
+			for (String pattern : allowedClasses) {
+				if (pattern.endsWith(".**")) {
+					this.packageTrees.add(pattern.substring(0, pattern.length() - 2));
+				} else if (pattern.endsWith(".*")) {
+					this.packages.add(pattern.substring(0, pattern.length() - 1));
+				} else {
+					this.classes.add(pattern);
+				}
+			}
+		}
+		this.maxDepth = maxDepth;
+		this.maxArrayLength = maxArrayLength;
+		this.maxBytes = maxBytes;
+	}
+	
+	/**
+	 * Returns whether the specified class is allowed.
+	 */
+	public boolean isAllowed(Class<?> type) {
+		while (type.isArray()) {
+			type = type.getComponentType();
+		}
+		if (this.allowAll || type.isPrimitive() || builtInTypes.contains(type)) {
+			return true;
+		}
+		String name = type.getName();
+		if (this.classes.contains(name)) {
+			return true;
+		}
+		int lastDot = name.lastIndexOf('.');
+		for (String pkg : this.packages) {
+			if (lastDot == pkg.length() - 1 && name.startsWith(pkg)) {
+				return true;
+			}
+		}
+		for (String tree : this.packageTrees) {
+			if (name.startsWith(tree)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * @throws InvalidClassException If the specified class is not allowed.
+	 */
+	void checkClass(Class<?> type) throws InvalidClassException {
+		if (!this.isAllowed(type)) {
+			throw new InvalidClassException(type.getName(), "Class is not allowed by the deserialization filter");
+		}
+	}
+	
+	/**
+	 * @throws InvalidObjectException If the specified depth exceeds the limit.
+	 */
+	void checkDepth(int depth) throws InvalidObjectException {
+		if (this.maxDepth > 0 && depth > this.maxDepth) {
+			throw new InvalidObjectException("Object depth exceeds the limit of " + this.maxDepth);
+		}
+	}
+	
+	/**
+	 * @throws InvalidObjectException If the specified length exceeds the limit.
+	 */
+	void checkArrayLength(int length) throws InvalidObjectException {
+		if (this.maxArrayLength > 0 && length > this.maxArrayLength) {
+			throw new InvalidObjectException("Length " + length + " exceeds the limit of " + this.maxArrayLength);
+		}
+	}
+
+}
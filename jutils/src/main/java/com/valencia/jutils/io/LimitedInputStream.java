@@ -0,0 +1,70 @@
+/**
+ * 
+ */
+package com.valencia.jutils.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+
+/**
+ * An input stream that fails once more than a maximum number of bytes have been read from it.
+ * 
+ * @author Gabriel Valencia, gee4vee@me.com
+ */
+class LimitedInputStream extends FilterInputStream {
+	
+	private final long maxBytes;
+	private long count;
+	
+	LimitedInputStream(InputStream in, long maxBytes) {
+		super(in);
+		this.maxBytes = maxBytes;
+	}
+	
+	/**
+	 * Returns the number of bytes that can still be read.
+	 */
+	long remaining() {
+		return this.maxBytes - this.count;
+	}
+	
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if (b >= 0) {
+			this.count(1);
+		}
+		return b;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int n = super.read(b, off, len);
+		if (n > 0) {
+			this.count(n);
+		}
+		return n;
+	}
+	
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = super.skip(n);
+		this.count(skipped);
+		return skipped;
+	}
+	
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+	
+	private void count(long n) throws InvalidObjectException {
+		this.count += n;
+		if (this.count > this.maxBytes) {
+			throw new InvalidObjectException("Serialized data exceeds the limit of " + this.maxBytes + " bytes");
+		}
+	}
+
+}
@@ -0,0 +1,155 @@
+/**
+ * 
+ */
+package com.valencia.jutils.io;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the records of a file written by {@link RecordFileWriter} through memory mappings, deserializing each record in place with 
+ * {@link ObjectUtils#deserialize(ByteBuffer, Class)} so that the file is never copied onto the heap. Files larger than 2GB are mapped 
+ * in windows that move forward as records are read.
+ * 
+ * <p>Mappings are released when they are garbage collected, since Java 8 cannot unmap them explicitly. Instances are not safe for use 
+ * by multiple threads.
+ * 
+ * @author Gabriel Valencia, gee4vee@me.com
+ *
+ * @param <T> The type of the records.
+ */
+public class MappedRecordReader<T> implements Iterable<T>, Closeable {
+	
+	public static final int DEFAULT_WINDOW_SIZE = 256 * 1024 * 1024;
+	
+	private final FileChannel channel;
+	private final Class<T> type;
+	private final long size;
+	private final int windowSize;
+	
+	private MappedByteBuffer window;
+	private long windowStart;
+	
+	/**
+	 * Opens the specified file with the default window size.
+	 * 
+	 * @throws IOException If the file cannot be read or was not written by {@link RecordFileWriter}.
+	 */
+	public MappedRecordReader(Path file, Class<T> type) throws IOException {
+		this(file, type, DEFAULT_WINDOW_SIZE);
+	}
+	
+	/**
+	 * Opens the specified file.
+	 * 
+	 * @param windowSize The number of bytes to map at a time. Windows are enlarged for records that don't fit.
+	 * 
+	 * @throws IOException If the file cannot be read or was not written by {@link RecordFileWriter}.
+	 */
+	public MappedRecordReader(Path file, Class<T> type, int windowSize) throws IOException {
+		if (windowSize < RecordFileWriter.HEADER_LEN) {
+			throw new IllegalArgumentException("Invalid window size: " + windowSize);
+		}
+		this.channel = FileChannel.open(file, StandardOpenOption.READ);
+		this.type = type;
+		this.windowSize = windowSize;
+		try {
+			this.size = this.channel.size();
+			ByteBuffer header = this.map(0, RecordFileWriter.HEADER_LEN);
+			if (header.getInt() != RecordFileWriter.MAGIC) {
+				throw new StreamCorruptedException("Not a record file: bad magic");
+			}
+			byte version = header.get();
+			if (version != RecordFileWriter.VERSION) {
+				throw new StreamCorruptedException("Unsupported record file version: " + version);
+			}
+		} catch (IOException e) {
+			this.channel.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Returns an iterator over the records from the start of the file. Read failures are thrown from the iterator as 
+	 * {@link UncheckedIOException}, with a {@link ClassNotFoundException} wrapped in an {@link InvalidClassException}.
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		return new Iterator<T>() {
+			
+			private long position = RecordFileWriter.HEADER_LEN;
+			
+			@Override
+			public boolean hasNext() {
+				return this.position < MappedRecordReader.this.size;
+			}
+			
+			@Override
+			public T next() {
+				if (!this.hasNext()) {
+					throw new NoSuchElementException();
+				}
+				try {
+					ByteBuffer record = MappedRecordReader.this.record(this.position);
+					this.position += 4 + record.remaining();
+					return ObjectUtils.deserialize(record, MappedRecordReader.this.type);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				} catch (ClassNotFoundException e) {
+					InvalidClassException ice = new InvalidClassException(e.getMessage());
+					ice.initCause(e);
+					throw new UncheckedIOException(ice);
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Returns a view of the payload of the record at the specified file position.
+	 */
+	private ByteBuffer record(long position) throws IOException {
+		ByteBuffer lenBuf = this.map(position, 4);
+		int len = lenBuf.getInt();
+		if (len < 0) {
+			throw new StreamCorruptedException("Corrupt record length " + len + " at " + position);
+		}
+		return this.map(position + 4, len);
+	}
+	
+	/**
+	 * Returns a view of the specified range of the file, moving the window if it doesn't contain the range.
+	 */
+	private ByteBuffer map(long position, int len) throws IOException {
+		if (position + len > this.size) {
+			throw new EOFException("Truncated record file: " + len + " bytes at " + position + " extend past the end at " + this.size);
+		}
+		if (this.window == null || position < this.windowStart || position + len > this.windowStart + this.window.capacity()) {
+			long mapLen = Math.min(this.size - position, Math.max(this.windowSize, len));
+			this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, position, mapLen);
+			this.windowStart = position;
+		}
+		ByteBuffer view = this.window.duplicate();
+		int start = (int) (position - this.windowStart);
+		view.position(start);
+		view.limit(start + len);
+		return view.slice();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		this.window = null;
+		this.channel.close();
+	}
+
+}
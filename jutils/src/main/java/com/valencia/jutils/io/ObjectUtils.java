@@ -3,43 +3,572 @@
  */
 package com.valencia.jutils.io;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
+import com.valencia.jutils.compression.CodecPool;
+import com.valencia.jutils.compression.Codecs;
+import com.valencia.jutils.compression.CompressionDictionary;
+import com.valencia.jutils.compression.CompressionProfile;
 import com.valencia.jutils.compression.CompressionUtils;
 import com.valencia.jutils.compression.CompressionUtils.CompressedData;
 
 /**
+ * Serializes objects with Java serialization, or optionally in a compact tagged binary format with {@link #serializeBinary(Object)}. 
+ * In the binary format, objects with a {@link TypeCodec} registered in {@link TypeCodecs} are written by hand-written encoders and 
+ * anything else falls back to Java serialization. Deserialization detects which format the data is in.
+ * 
  * @author Gabriel Valencia, gee4vee@me.com
  *
  */
 public class ObjectUtils {
 	
+	/**
+	 * The first two bytes of data in the binary format, "JB". Java serialization streams start with 
+	 * {@link ObjectStreamConstants#STREAM_MAGIC} instead.
+	 */
+	public static final short BINARY_MAGIC = 0x4A42;
+	
+	public static final byte BINARY_VERSION = 1;
+	
+	/**
+	 * The first two bytes of a batch written by {@link #serializeAll(Iterable, OutputStream)}, "JS".
+	 */
+	public static final short BATCH_MAGIC = 0x4A53;
+	
+	/**
+	 * The number of objects without a type codec written to a batch between resets of its shared object stream.
+	 */
+	public static final int BATCH_RESET_INTERVAL = 1024;
+	
+	private static final byte BATCH_RECORD = 1;
+	private static final byte BATCH_END = 0;
+	
+	/**
+	 * Per-thread buffers larger than this are not kept for reuse, so that one large object doesn't pin memory for the thread's lifetime.
+	 */
+	public static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+	
+	private static final int INITIAL_BUFFER_SIZE = 4 * 1024;
+	
+	private static final int STREAM_BUFFER_SIZE = 8 * 1024;
+	
+	private static final ThreadLocal<ReusableByteArrayOutputStream> pooledBuffers = new ThreadLocal<>();
+	
+	/**
+	 * Classes whose instances are immutable, so a copy can share them.
+	 */
+	private static final Set<Class<?>> immutableTypes = new HashSet<>(Arrays.asList(String.class, Boolean.class, Byte.class, 
+			Short.class, Character.class, Integer.class, Long.class, Float.class, Double.class, BigInteger.class, BigDecimal.class, 
+			UUID.class, Class.class, Instant.class, Duration.class, LocalDate.class, LocalTime.class, LocalDateTime.class, 
+			ZonedDateTime.class, OffsetDateTime.class));
+	
+	private static final Map<Class<?>, CopyHandler<?>> copyHandlers = new ConcurrentHashMap<>();
+	
+	/**
+	 * The way each class is copied, resolved on its first copy.
+	 */
+	private static final Map<Class<?>, CopyHandler<Object>> copyStrategies = new ConcurrentHashMap<>();
+	
 	public static byte[] serialize(Object obj) throws IOException {
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		ObjectOutputStream oos = new ObjectOutputStream(baos);
+		try (SerializedBuffer buf = serializeToBuffer(obj)) {
+			return buf.toByteArray();
+		}
+	}
+	
+	/**
+	 * Serializes the specified object in the binary format of {@link TypeCodecs}, which is smaller and faster than Java serialization 
+	 * for strings, boxed primitives, primitive arrays and the common collections. Unlike Java serialization, an object referenced more 
+	 * than once from codec-encoded objects is written and deserialized once per reference, and cyclic references between them cannot 
+	 * be written. Objects without a codec all share one Java serialization stream, so their class descriptors are written once.
+	 * 
+	 * @throws java.io.NotSerializableException If an object has no codec and is not serializable, or is part of a cycle of 
+	 * codec-encoded objects.
+	 * @throws IOException
+	 */
+	public static byte[] serializeBinary(Object obj) throws IOException {
+		try (SerializedBuffer buf = borrowBuffer()) {
+			serializeBinaryTo(obj, buf.stream());
+			return buf.toByteArray();
+		}
+	}
+	
+	/**
+	 * Serializes the specified object in the binary format of {@link TypeCodecs} directly to the specified stream. The stream is flushed 
+	 * but not closed. See {@link #serializeBinary(Object)}.
+	 * 
+	 * @throws IOException
+	 */
+	public static void serializeBinaryTo(Object obj, OutputStream out) throws IOException {
+		// one shared object stream for the whole graph, never reset, since the reader reads all of it in order.
+		BinaryObjectOutput bout = new BinaryObjectOutput(out, Integer.MAX_VALUE);
+		bout.writeShort(BINARY_MAGIC);
+		bout.writeByte(BINARY_VERSION);
+		bout.writeObject(obj);
+		bout.flush();
+	}
+	
+	/**
+	 * Serializes the specified object into a per-thread reusable buffer and returns it without copying. The buffer must be closed after 
+	 * use, which returns it to the pool; its contents must not be used after that.
+	 * 
+	 * @throws IOException
+	 */
+	public static SerializedBuffer serializeToBuffer(Object obj) throws IOException {
+		SerializedBuffer buf = borrowBuffer();
 		try {
-			oos.writeObject(obj);
-		} finally {
-			oos.close();
+			serializeTo(obj, buf.stream());
+		} catch (IOException | RuntimeException e) {
+			buf.close();
+			throw e;
 		}
-		
+		return buf;
+	}
+	
+	private static SerializedBuffer borrowBuffer() {
+		ReusableByteArrayOutputStream baos = pooledBuffers.get();
+		if (baos == null) {
+			baos = new ReusableByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+		} else {
+			// taken out of the pool until it's closed, in case of nested use.
+			pooledBuffers.remove();
+		}
+		return new SerializedBuffer(baos);
+	}
+	
+	/**
+	 * Serializes the specified object directly into the specified buffer, starting at its current position, with no intermediate 
+	 * array. The buffer's position is advanced past the serialized bytes.
+	 * 
+	 * @return The number of bytes written.
+	 * 
+	 * @throws IOException
+	 * @throws java.nio.BufferOverflowException If the buffer is too small.
+	 */
+	public static int serializeTo(Object obj, ByteBuffer buf) throws IOException {
+		int start = buf.position();
+		serializeTo(obj, new ByteBufferOutputStream(buf));
+		return buf.position() - start;
+	}
+	
+	/**
+	 * Serializes the specified object directly to the specified stream. The stream is flushed but not closed.
+	 * 
+	 * @throws IOException
+	 */
+	public static void serializeTo(Object obj, OutputStream out) throws IOException {
+		ObjectOutputStream oos = new ObjectOutputStream(out);
+		oos.writeObject(obj);
+		oos.flush();
+	}
+	
+	/**
+	 * Deserializes an object written by {@link #serialize(Object)}, {@link #serializeBinary(Object)} or with Java serialization.
+	 * 
+	 * @throws StreamCorruptedException If the data is in neither format.
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static <T> T deserialize(byte[] objData, Class<T> objClass) throws ClassNotFoundException, IOException {
+		return deserializeFrom(new ByteArrayInputStream(objData), objClass, null);
+	}
+	
+	/**
+	 * Deserializes an object written by {@link #serialize(Object)}, {@link #serializeBinary(Object)} or with Java serialization, 
+	 * rejecting data that does not pass the specified filter.
+	 * 
+	 * @throws java.io.InvalidClassException If the data contains a class that the filter does not allow.
+	 * @throws java.io.InvalidObjectException If the data exceeds a limit of the filter.
+	 * @throws StreamCorruptedException If the data is in neither format.
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static <T> T deserialize(byte[] objData, Class<T> objClass, DeserializationFilter filter) throws ClassNotFoundException, 
+			IOException {
+		return deserializeFrom(new ByteArrayInputStream(objData), objClass, filter);
+	}
+	
+	/**
+	 * Deserializes an object written by {@link #serialize(Object)}, {@link #serializeBinary(Object)} or with Java serialization 
+	 * directly from the specified buffer, starting at its current position, so that data in a direct or mapped buffer doesn't have to 
+	 * be copied onto the heap first. The buffer's position is advanced past the bytes read.
+	 * 
+	 * @throws StreamCorruptedException If the data is in neither format.
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static <T> T deserialize(ByteBuffer buf, Class<T> objClass) throws ClassNotFoundException, IOException {
+		return deserializeFrom(new ByteBufferInputStream(buf), objClass, null);
+	}
+	
+	/**
+	 * Deserializes one object written by {@link #serializeTo(Object, OutputStream)} or 
+	 * {@link #serializeBinaryTo(Object, OutputStream)} from the specified stream. The stream is not closed.
+	 * 
+	 * @throws StreamCorruptedException If the data is in neither format.
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static <T> T deserializeFrom(InputStream in, Class<T> objClass) throws ClassNotFoundException, IOException {
+		return deserializeFrom(in, objClass, null);
+	}
+	
+	/**
+	 * Deserializes one object written by {@link #serializeTo(Object, OutputStream)} or 
+	 * {@link #serializeBinaryTo(Object, OutputStream)} from the specified stream, rejecting data that does not pass the specified 
+	 * filter. The stream is not closed.
+	 * 
+	 * @param filter The filter, or <code>null</code> for none.
+	 * 
+	 * @throws StreamCorruptedException If the data is in neither format.
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T deserializeFrom(InputStream in, Class<T> objClass, DeserializationFilter filter) throws ClassNotFoundException, 
+			IOException {
+		PushbackInputStream pin = new PushbackInputStream(in, 2);
+		int b0 = pin.read();
+		int b1 = pin.read();
+		if (b1 < 0) {
+			throw new EOFException("Not serialized data: too short");
+		}
+		short magic = (short) ((b0 << 8) | b1);
+		if (magic == ObjectStreamConstants.STREAM_MAGIC) {
+			pin.unread(b1);
+			pin.unread(b0);
+			ObjectInputStream ois = new CachingObjectInputStream(pin, null, filter);
+			return (T) ois.readObject();
+		}
+		if (magic != BINARY_MAGIC) {
+			throw new StreamCorruptedException("Not serialized data: bad magic");
+		}
+		BinaryObjectInput bin = new BinaryObjectInput(pin, filter);
+		byte version = bin.readByte();
+		if (version != BINARY_VERSION) {
+			throw new StreamCorruptedException("Unsupported binary serialization version: " + version);
+		}
+		return (T) bin.readObject();
+	}
+	
+	/**
+	 * Serializes the specified objects into one batch. See {@link #serializeAll(Iterable, OutputStream)}.
+	 * 
+	 * @throws IOException
+	 */
+	public static byte[] serializeAll(Iterable<?> objs) throws IOException {
+		ReusableByteArrayOutputStream baos = new ReusableByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+		serializeAll(objs, baos);
 		return baos.toByteArray();
 	}
 	
+	/**
+	 * Serializes the specified objects into one batch written to the specified stream, which is flushed but not closed. The batch has a 
+	 * single header and objects without a type codec share one Java serialization stream, so their class descriptors are written once 
+	 * per {@link #BATCH_RESET_INTERVAL} objects rather than once per object. The objects can be read back one at a time with 
+	 * {@link #deserializeAll(InputStream, Class)}.
+	 * 
+	 * <p>As with {@link ObjectOutputStream}, an object without a type codec referenced from more than one record between resets is 
+	 * written once and deserialized as a single instance.
+	 * 
+	 * @return The number of objects written.
+	 * 
+	 * @throws IOException
+	 */
+	public static int serializeAll(Iterable<?> objs, OutputStream out) throws IOException {
+		BinaryObjectOutput bout = new BinaryObjectOutput(new BufferedOutputStream(out, STREAM_BUFFER_SIZE), BATCH_RESET_INTERVAL);
+		bout.writeShort(BATCH_MAGIC);
+		bout.writeByte(BINARY_VERSION);
+		int count = 0;
+		for (Object obj : objs) {
+			bout.writeByte(BATCH_RECORD);
+			bout.writeObject(obj);
+			count++;
+		}
+		bout.writeByte(BATCH_END);
+		bout.flush();
+		return count;
+	}
+	
+	/**
+	 * Returns an iterator over the objects in a batch written by {@link #serializeAll(Iterable)}.
+	 * 
+	 * @throws IOException If the data is not a batch.
+	 */
+	public static <T> Iterator<T> deserializeAll(byte[] batchData, Class<T> objClass) throws IOException {
+		return deserializeAll(new ByteArrayInputStream(batchData), objClass);
+	}
+	
+	/**
+	 * Returns an iterator that reads the objects of a batch written by {@link #serializeAll(Iterable, OutputStream)} one at a time from 
+	 * the specified stream. The stream is read ahead in blocks, so it should not be read further afterwards, and it is not closed. 
+	 * Read failures are thrown from the iterator as {@link UncheckedIOException}, with a {@link ClassNotFoundException} wrapped in an 
+	 * {@link InvalidClassException}.
+	 * 
+	 * @throws StreamCorruptedException If the stream does not start with a batch header.
+	 * @throws IOException
+	 */
+	public static <T> Iterator<T> deserializeAll(InputStream in, Class<T> objClass) throws IOException {
+		BinaryObjectInput bin = new BinaryObjectInput(new BufferedInputStream(in, STREAM_BUFFER_SIZE));
+		if (bin.readShort() != BATCH_MAGIC) {
+			throw new StreamCorruptedException("Not a serialized batch: bad magic");
+		}
+		byte version = bin.readByte();
+		if (version != BINARY_VERSION) {
+			throw new StreamCorruptedException("Unsupported batch version: " + version);
+		}
+		return new Iterator<T>() {
+			
+			private int marker = -1;
+			
+			@Override
+			public boolean hasNext() {
+				if (this.marker < 0) {
+					try {
+						this.marker = bin.readByte();
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+					if (this.marker != BATCH_RECORD && this.marker != BATCH_END) {
+						throw new UncheckedIOException(new StreamCorruptedException("Corrupt batch: bad record marker " + this.marker));
+					}
+				}
+				return this.marker == BATCH_RECORD;
+			}
+			
+			@Override
+			public T next() {
+				if (!this.hasNext()) {
+					throw new NoSuchElementException();
+				}
+				this.marker = -1;
+				try {
+					return objClass.cast(bin.readObject());
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				} catch (ClassNotFoundException e) {
+					InvalidClassException ice = new InvalidClassException(e.getMessage());
+					ice.initCause(e);
+					throw new UncheckedIOException(ice);
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Registers a handler that copies instances of exactly the specified class for {@link #deepCopy(Object)}, replacing any previous 
+	 * handler for it.
+	 */
+	public static <T> void registerCopyHandler(Class<T> type, CopyHandler<? super T> handler) {
+		copyHandlers.put(type, handler);
+		// strategies already resolved for the class have to be resolved again.
+		copyStrategies.remove(type);
+	}
+	
+	/**
+	 * Returns a deep copy of the specified object. Immutable JDK types such as strings, boxed primitives and enums are returned as is, 
+	 * primitive arrays are cloned and classes with a {@link #registerCopyHandler(Class, CopyHandler) registered handler} are copied by 
+	 * it. Anything else is serialized into a pooled buffer and deserialized straight from it. The way each class is copied is cached.
+	 * 
+	 * @throws IOException If the object cannot be serialized.
+	 */
 	@SuppressWarnings("unchecked")
-	public static <T> T deserialize(byte[] objData, Class<T> objClass) throws ClassNotFoundException, IOException {
-		ByteArrayInputStream bais = new ByteArrayInputStream(objData);
-		ObjectInputStream ois = new ObjectInputStream(bais);
+	public static <T> T deepCopy(T obj) throws IOException {
+		if (obj == null) {
+			return null;
+		}
+		return (T) copyStrategies.computeIfAbsent(obj.getClass(), ObjectUtils::copyStrategy).copy(obj);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static CopyHandler<Object> copyStrategy(Class<?> type) {
+		CopyHandler<Object> handler = (CopyHandler<Object>) copyHandlers.get(type);
+		if (handler != null) {
+			return handler;
+		}
+		if (immutableTypes.contains(type) || Enum.class.isAssignableFrom(type)) {
+			return value -> value;
+		}
+		if (type.isArray() && type.getComponentType().isPrimitive()) {
+			return ObjectUtils::clonePrimitiveArray;
+		}
+		return ObjectUtils::copyBySerialization;
+	}
+	
+	private static Object clonePrimitiveArray(Object array) {
+		if (array instanceof byte[]) {
+			return ((byte[]) array).clone();
+		} else if (array instanceof int[]) {
+			return ((int[]) array).clone();
+		} else if (array instanceof long[]) {
+			return ((long[]) array).clone();
+		} else if (array instanceof char[]) {
+			return ((char[]) array).clone();
+		} else if (array instanceof double[]) {
+			return ((double[]) array).clone();
+		} else if (array instanceof float[]) {
+			return ((float[]) array).clone();
+		} else if (array instanceof short[]) {
+			return ((short[]) array).clone();
+		}
+		return ((boolean[]) array).clone();
+	}
+	
+	private static Object copyBySerialization(Object obj) throws IOException {
+		try (SerializedBuffer buf = serializeToBuffer(obj)) {
+			return deserializeFrom(new ByteArrayInputStream(buf.array(), 0, buf.length()), Object.class);
+		} catch (ClassNotFoundException e) {
+			InvalidClassException ice = new InvalidClassException("Cannot copy " + obj.getClass().getName() + ": " + e.getMessage());
+			ice.initCause(e);
+			throw ice;
+		}
+	}
+	
+	/**
+	 * Serializes and compresses the specified object with the {@link CompressionProfile#DEFAULT} profile.
+	 * 
+	 * @throws IOException
+	 */
+	public static CompressedData serializeCompressed(Object obj) throws IOException {
+		return serializeCompressed(obj, CompressionProfile.DEFAULT);
+	}
+	
+	/**
+	 * Serializes the specified object straight into a deflater, so that the serialized form is never held in memory in full. The result 
+	 * is the same as compressing the output of {@link #serialize(Object)} and can also be decompressed with 
+	 * {@link CompressionUtils#decompressData(CompressedData)}.
+	 * 
+	 * @throws IOException If the object cannot be serialized or its serialized form is 2GB or more.
+	 */
+	public static CompressedData serializeCompressed(Object obj, CompressionProfile profile) throws IOException {
+		CodecPool pool = CodecPool.getDefault();
+		Deflater def = pool.borrowDeflater(profile.getLevel(), profile.getStrategy());
+		try {
+			ReusableByteArrayOutputStream baos = new ReusableByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+			DeflaterOutputStream dos = new DeflaterOutputStream(baos, def, STREAM_BUFFER_SIZE);
+			// buffered so that the many small writes of the encoders reach the deflater in chunks.
+			serializeTo(obj, new BufferedOutputStream(dos, STREAM_BUFFER_SIZE));
+			dos.finish();
+			long originalLength = def.getBytesRead();
+			if (originalLength > Integer.MAX_VALUE) {
+				throw new IOException("Serialized object is too large to compress: " + originalLength + " bytes");
+			}
+			return new CompressedData(baos.toByteArray(), baos.size(), (int) originalLength);
+		} finally {
+			pool.returnDeflater(def, profile.getLevel(), profile.getStrategy());
+		}
+	}
+	
+	/**
+	 * Deserializes an object from data produced by {@link #serializeCompressed(Object)}, inflating it as it is read. Data compressed 
+	 * with a dictionary or a codec other than deflate is decompressed in full first.
+	 * 
+	 * @throws DataFormatException If the compressed data is corrupt.
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static <T> T deserializeCompressed(CompressedData cdata, Class<T> objClass) throws ClassNotFoundException, IOException, 
+			DataFormatException {
+		if (cdata.codec != Codecs.DEFLATE_ID || cdata.dictionaryId != CompressionDictionary.NO_DICTIONARY) {
+			return deserialize(CompressionUtils.decompressData(cdata), objClass);
+		}
+		CodecPool pool = CodecPool.getDefault();
+		Inflater inf = pool.borrowInflater();
 		try {
-			Object obj = ois.readObject();
-			return (T)obj;
+			InflaterInputStream iis = new InflaterInputStream(new ByteArrayInputStream(cdata.data, 0, cdata.compressedLength), inf, 
+					STREAM_BUFFER_SIZE);
+			return deserializeFrom(new BufferedInputStream(iis, STREAM_BUFFER_SIZE), objClass);
 		} finally {
-			ois.close();
+			pool.returnInflater(inf);
+		}
+	}
+
+	/**
+	 * Serialized bytes held in a pooled buffer, see {@link ObjectUtils#serializeToBuffer(Object)}.
+	 */
+	public static class SerializedBuffer implements AutoCloseable {
+		
+		private ReusableByteArrayOutputStream baos;
+		
+		SerializedBuffer(ReusableByteArrayOutputStream baos) {
+			this.baos = baos;
+		}
+		
+		ReusableByteArrayOutputStream stream() {
+			if (this.baos == null) {
+				throw new IllegalStateException("Buffer has been released");
+			}
+			return this.baos;
+		}
+		
+		/**
+		 * Returns the internal array. Only the first {@link #length()} bytes are valid.
+		 */
+		public byte[] array() {
+			return this.stream().array();
+		}
+		
+		public int length() {
+			return this.stream().size();
+		}
+		
+		/**
+		 * Returns a buffer that wraps the serialized bytes without copying them.
+		 */
+		public ByteBuffer asByteBuffer() {
+			return this.stream().toByteBuffer();
+		}
+		
+		public byte[] toByteArray() {
+			return this.stream().toByteArray();
+		}
+		
+		/**
+		 * Returns the buffer to the pool.
+		 */
+		@Override
+		public void close() {
+			ReusableByteArrayOutputStream released = this.baos;
+			this.baos = null;
+			if (released != null && released.capacity() <= MAX_POOLED_BUFFER_SIZE) {
+				released.reset();
+				pooledBuffers.set(released);
+			}
 		}
 	}
 
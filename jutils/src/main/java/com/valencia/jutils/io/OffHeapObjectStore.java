@@ -0,0 +1,389 @@
+/**
+ * 
+ */
+package com.valencia.jutils.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+
+import com.valencia.jutils.compression.CompressionProfile;
+import com.valencia.jutils.compression.CompressionUtils;
+import com.valencia.jutils.compression.CompressionUtils.CompressedData;
+
+/**
+ * A store of objects kept serialized outside the Java heap, so that large caches add little to garbage collection work. Values are
+ * serialized with {@link ObjectUtils}, optionally compressed, and copied into direct buffer slabs. Compression stores values that 
+ * are too small or random to shrink as they are. They are deserialized again on each
+ * {@link #get(Object, Class)}, so callers get their own copy. Only the key and a small entry per value stay on the heap.
+ * 
+ * <p>Memory is allocated in fixed-size slabs, each divided into equal chunks of one power-of-two size class. A value takes the
+ * smallest chunk it fits in. Freed chunks are reused by values of the same class, and a slab whose chunks are all free is returned to
+ * a free list from which any class can take it. When no chunk can be found and the byte budget allows no more slabs, the least
+ * recently used value of the same size class is evicted to free a chunk. If there is none, the least recently used values of any 
+ * class are evicted until a slab is empty, up to {@link #MAX_EVICTIONS_PER_PUT}; the value is not stored if that is not enough.
+ * 
+ * <p>Instances are safe for use by multiple threads. Serialization happens outside the lock.
+ * 
+ * @author Gabriel Valencia, gee4vee@me.com
+ * 
+ * @param <K> The key type, typically {@link Long} or {@link String}.
+ */
+public class OffHeapObjectStore<K> {
+	
+	public static final int DEFAULT_SLAB_SIZE = 1024 * 1024;
+	
+	/**
+	 * The most values evicted to make room for one value of a size class that has no slab. Evicted values are usually spread over 
+	 * many slabs, so without a cap one put could empty most of the store.
+	 */
+	public static final int MAX_EVICTIONS_PER_PUT = 64;
+	
+	/**
+	 * The size of the smallest chunks, as a power of two.
+	 */
+	private static final int MIN_CHUNK_SHIFT = 6;
+	
+	private final int slabSize;
+	private final int maxSlabs;
+	private final boolean compress;
+	
+	private final LinkedHashMap<K, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private final List<Slab> slabs = new ArrayList<>();
+	private final List<Slab> freeSlabs = new ArrayList<>();
+	/**
+	 * The slabs of each size class that have free chunks.
+	 */
+	private final List<List<Slab>> partialSlabs = new ArrayList<>();
+	
+	private long payloadBytes;
+	private long chunkBytes;
+	private long hits;
+	private long misses;
+	private long evictions;
+	
+	/**
+	 * Returns a new store with the default slab size that does not compress values.
+	 * 
+	 * @param maxBytes The maximum number of bytes of slabs to allocate.
+	 */
+	public OffHeapObjectStore(long maxBytes) {
+		this(maxBytes, DEFAULT_SLAB_SIZE, false);
+	}
+	
+	/**
+	 * Returns a new store.
+	 * 
+	 * @param maxBytes The maximum number of bytes of slabs to allocate.
+	 * @param slabSize The size of each slab, which must be a power of two of at least 4K. This is also the largest value that can be
+	 * stored.
+	 * @param compress Whether to compress values.
+	 */
+	public OffHeapObjectStore(long maxBytes, int slabSize, boolean compress) {
+		if (slabSize < 4096 || Integer.bitCount(slabSize) != 1 || maxBytes < slabSize) {
+			throw new IllegalArgumentException("Invalid store sizes: maxBytes=" + maxBytes + ", slabSize=" + slabSize);
+		}
+		this.slabSize = slabSize;
+		this.maxSlabs = (int) Math.min(Integer.MAX_VALUE, maxBytes / slabSize);
+		this.compress = compress;
+		for (int size = 1 << MIN_CHUNK_SHIFT; size <= slabSize; size <<= 1) {
+			this.partialSlabs.add(new ArrayList<>());
+		}
+	}
+	
+	/**
+	 * Serializes and stores the specified value, replacing any previous value for the key. Values whose serialized size exceeds the
+	 * slab size are not stored and any previous value is removed.
+	 * 
+	 * @return <code>true</code> if the value was stored.
+	 * 
+	 * @throws IOException If the value cannot be serialized.
+	 */
+	public boolean put(K key, Object value) throws IOException {
+		if (this.compress) {
+			CompressedData cdata = CompressionUtils.compressData(ObjectUtils.serialize(value), CompressionProfile.DEFAULT, true);
+			byte[] bytes = cdata.toBytes();
+			return this.put(key, bytes, bytes.length);
+		}
+		try (ObjectUtils.SerializedBuffer buf = ObjectUtils.serializeToBuffer(value)) {
+			return this.put(key, buf.array(), buf.length());
+		}
+	}
+	
+	private synchronized boolean put(K key, byte[] data, int len) {
+		this.remove(key);
+		if (len > this.slabSize) {
+			return false;
+		}
+		int sizeClass = sizeClass(len);
+		Slab slab = this.slabFor(sizeClass);
+		if (slab == null && this.evict(sizeClass)) {
+			slab = this.slabFor(sizeClass);
+		}
+		for (int evicted = 0; slab == null; evicted++) {
+			if (this.entries.isEmpty() || evicted == MAX_EVICTIONS_PER_PUT) {
+				return false;
+			}
+			this.evict(-1);
+			slab = this.slabFor(sizeClass);
+		}
+		int offset = slab.allocate();
+		if (slab.freeCount == 0) {
+			this.partialSlabs.get(sizeClass).remove(slab);
+		}
+		slab.buf.position(offset);
+		slab.buf.put(data, 0, len);
+		this.entries.put(key, new Entry(slab, offset, len));
+		this.payloadBytes += len;
+		this.chunkBytes += slab.chunkSize;
+		return true;
+	}
+	
+	/**
+	 * Returns a slab of the specified size class with a free chunk, or <code>null</code> if there is none and no slab can be added.
+	 */
+	private Slab slabFor(int sizeClass) {
+		List<Slab> partial = this.partialSlabs.get(sizeClass);
+		if (!partial.isEmpty()) {
+			return partial.get(partial.size() - 1);
+		}
+		Slab slab;
+		if (!this.freeSlabs.isEmpty()) {
+			slab = this.freeSlabs.remove(this.freeSlabs.size() - 1);
+		} else if (this.slabs.size() < this.maxSlabs) {
+			slab = new Slab(ByteBuffer.allocateDirect(this.slabSize));
+			this.slabs.add(slab);
+		} else {
+			return null;
+		}
+		slab.assign(sizeClass, 1 << (sizeClass + MIN_CHUNK_SHIFT), this.slabSize);
+		partial.add(slab);
+		return slab;
+	}
+	
+	/**
+	 * Evicts the least recently used value of the specified size class, or of any class if it is -1.
+	 * 
+	 * @return <code>true</code> if a value was evicted.
+	 */
+	private boolean evict(int sizeClass) {
+		Iterator<Map.Entry<K, Entry>> it = this.entries.entrySet().iterator();
+		while (it.hasNext()) {
+			Entry entry = it.next().getValue();
+			if (sizeClass < 0 || entry.slab.sizeClass == sizeClass) {
+				it.remove();
+				this.release(entry);
+				this.evictions++;
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private void release(Entry entry) {
+		Slab slab = entry.slab;
+		slab.free(entry.offset);
+		this.payloadBytes -= entry.length;
+		this.chunkBytes -= slab.chunkSize;
+		List<Slab> partial = this.partialSlabs.get(slab.sizeClass);
+		if (slab.used == 0) {
+			partial.remove(slab);
+			this.freeSlabs.add(slab);
+		} else if (slab.freeCount == 1) {
+			partial.add(slab);
+		}
+	}
+	
+	/**
+	 * Returns a copy of the value for the specified key, or <code>null</code> if there is none.
+	 * 
+	 * @throws IOException If the value cannot be deserialized.
+	 * @throws ClassNotFoundException
+	 * @throws IllegalStateException If the stored data cannot be decompressed, which indicates it was corrupted in memory.
+	 */
+	public <T> T get(K key, Class<T> type) throws IOException, ClassNotFoundException {
+		byte[] data;
+		synchronized (this) {
+			Entry entry = this.entries.get(key);
+			if (entry == null) {
+				this.misses++;
+				return null;
+			}
+			this.hits++;
+			data = new byte[entry.length];
+			entry.slab.buf.position(entry.offset);
+			entry.slab.buf.get(data);
+		}
+		if (!this.compress) {
+			return ObjectUtils.deserialize(data, type);
+		}
+		try {
+			return ObjectUtils.deserializeCompressed(CompressedData.fromBytes(data), type);
+		} catch (DataFormatException e) {
+			throw new IllegalStateException("Stored data for " + key + " is corrupt", e);
+		}
+	}
+	
+	public synchronized boolean containsKey(K key) {
+		return this.entries.containsKey(key);
+	}
+	
+	/**
+	 * Removes the value for the specified key.
+	 * 
+	 * @return <code>true</code> if there was a value.
+	 */
+	public synchronized boolean remove(K key) {
+		Entry entry = this.entries.remove(key);
+		if (entry == null) {
+			return false;
+		}
+		this.release(entry);
+		return true;
+	}
+	
+	/**
+	 * Removes all values and releases the slabs, whose memory is freed when they are garbage collected.
+	 */
+	public synchronized void clear() {
+		this.entries.clear();
+		this.slabs.clear();
+		this.freeSlabs.clear();
+		for (List<Slab> partial : this.partialSlabs) {
+			partial.clear();
+		}
+		this.payloadBytes = this.chunkBytes = 0;
+	}
+	
+	public synchronized int size() {
+		return this.entries.size();
+	}
+	
+	/**
+	 * Returns a snapshot of the metrics of this store.
+	 */
+	public synchronized Stats getStats() {
+		return new Stats(this.entries.size(), this.payloadBytes, this.chunkBytes, (long) this.slabs.size() * this.slabSize,
+				this.freeSlabs.size(), this.hits, this.misses, this.evictions);
+	}
+	
+	private static int sizeClass(int len) {
+		int shift = 32 - Integer.numberOfLeadingZeros(Math.max(len, 1) - 1);
+		return Math.max(0, shift - MIN_CHUNK_SHIFT);
+	}
+	
+	/**
+	 * Metrics of an {@link OffHeapObjectStore}.
+	 */
+	public static class Stats {
+		
+		public final int entries;
+		/**
+		 * The number of serialized bytes stored.
+		 */
+		public final long payloadBytes;
+		/**
+		 * The number of bytes of the chunks holding the values, which is larger than the payload by the unused end of each chunk.
+		 */
+		public final long chunkBytes;
+		/**
+		 * The number of bytes of direct memory allocated for slabs.
+		 */
+		public final long slabBytes;
+		public final int freeSlabs;
+		public final long hits;
+		public final long misses;
+		public final long evictions;
+		
+		public Stats(int entries, long payloadBytes, long chunkBytes, long slabBytes, int freeSlabs, long hits, long misses,
+				long evictions) {
+			this.entries = entries;
+			this.payloadBytes = payloadBytes;
+			this.chunkBytes = chunkBytes;
+			this.slabBytes = slabBytes;
+			this.freeSlabs = freeSlabs;
+			this.hits = hits;
+			this.misses = misses;
+			this.evictions = evictions;
+		}
+		
+		/**
+		 * Returns the fraction of lookups that found a value, or 0 if there were no lookups.
+		 */
+		public double getHitRate() {
+			long lookups = this.hits + this.misses;
+			return lookups == 0 ? 0 : (double) this.hits / lookups;
+		}
+		
+		@Override
+		public String toString() {
+			return "entries=" + this.entries + ", payload bytes=" + this.payloadBytes + ", chunk bytes=" + this.chunkBytes
+					+ ", slab bytes=" + this.slabBytes + ", free slabs=" + this.freeSlabs + ", hit rate=" + this.getHitRate()
+					+ ", evictions=" + this.evictions;
+		}
+	}
+	
+	private static class Entry {
+		
+		final Slab slab;
+		final int offset;
+		final int length;
+		
+		Entry(Slab slab, int offset, int length) {
+			this.slab = slab;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+	
+	/**
+	 * A direct buffer divided into chunks of one size class. All access must be synchronized on the store.
+	 */
+	private static class Slab {
+		
+		final ByteBuffer buf;
+		int sizeClass = -1;
+		int chunkSize;
+		/**
+		 * A stack of the offsets of the free chunks.
+		 */
+		int[] free;
+		int freeCount;
+		int used;
+		
+		Slab(ByteBuffer buf) {
+			this.buf = buf;
+		}
+		
+		void assign(int sizeClass, int chunkSize, int slabSize) {
+			this.sizeClass = sizeClass;
+			this.chunkSize = chunkSize;
+			int chunks = slabSize / chunkSize;
+			if (this.free == null || this.free.length < chunks) {
+				this.free = new int[chunks];
+			}
+			// hand out chunks from the start of the slab first.
+			for (int i = 0; i < chunks; i++) {
+				this.free[i] = (chunks - 1 - i) * chunkSize;
+			}
+			this.freeCount = chunks;
+			this.used = 0;
+		}
+		
+		int allocate() {
+			this.used++;
+			return this.free[--this.freeCount];
+		}
+		
+		void free(int offset) {
+			this.used--;
+			this.free[this.freeCount++] = offset;
+		}
+	}
+
+}
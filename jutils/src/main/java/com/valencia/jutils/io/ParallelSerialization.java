@@ -0,0 +1,223 @@
+/**
+ * 
+ */
+package com.valencia.jutils.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Serializes large collections on multiple cores. The elements are split into partitions which are serialized concurrently on a
+ * {@link ForkJoinPool}, each as an independent {@link ObjectUtils#serializeAll(Iterable) batch} frame, and written after an index of
+ * the frames. The index lets {@link #deserialize(byte[])} locate the frames without decoding them and deserialize them concurrently
+ * as well. The format is:
+ * <pre>
+ * short magic "JP", byte version, int frameCount, int elementCount,
+ * frameCount * (int frameElementCount, int frameLength), frames
+ * </pre>
+ * 
+ * <p>Since frames are independent, objects referenced from elements in different frames are deserialized as separate instances.
+ * 
+ * @author Gabriel Valencia, gee4vee@me.com
+ */
+public class ParallelSerialization {
+	
+	public static final short MAGIC = 0x4A50;
+	public static final byte VERSION = 1;
+	
+	/**
+	 * The smallest number of elements serialized in one partition, below which the overhead of a task outweighs its work.
+	 */
+	public static final int MIN_PARTITION_SIZE = 1024;
+	
+	private static final int HEADER_LEN = 11;
+	private static final int INDEX_ENTRY_LEN = 8;
+	
+	/**
+	 * Serializes the specified elements on the common pool, with partitions sized to give each worker a few of them.
+	 * 
+	 * @throws IOException If an element cannot be serialized.
+	 */
+	public static byte[] serialize(Collection<?> elements) throws IOException {
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		ReusableByteArrayOutputStream baos = new ReusableByteArrayOutputStream(64 * 1024);
+		serialize(elements, partitionSize(elements.size(), pool), pool, baos);
+		return baos.toByteArray();
+	}
+	
+	/**
+	 * Serializes the specified elements and writes the index and frames to the specified stream in order. The stream is not closed.
+	 * 
+	 * @param elements The elements to serialize. They must not be modified until this method returns.
+	 * @param partitionSize The number of elements in each frame.
+	 * @param pool The pool on which the partitions are serialized.
+	 * @param out The stream to which the data is written.
+	 * 
+	 * @throws IOException If an element cannot be serialized.
+	 */
+	public static void serialize(Collection<?> elements, int partitionSize, ForkJoinPool pool, OutputStream out) throws IOException {
+		if (partitionSize <= 0) {
+			throw new IllegalArgumentException("Partition size must be positive: " + partitionSize);
+		}
+		Object[] array = elements.toArray();
+		List<ForkJoinTask<byte[]>> tasks = new ArrayList<>();
+		for (int off = 0; off < array.length; off += partitionSize) {
+			List<Object> partition = Arrays.asList(array).subList(off, Math.min(array.length, off + partitionSize));
+			tasks.add(pool.submit(() -> ObjectUtils.serializeAll(partition)));
+		}
+		
+		List<byte[]> frames = new ArrayList<>(tasks.size());
+		for (ForkJoinTask<byte[]> task : tasks) {
+			frames.add(join(task));
+		}
+		DataOutputStream dout = new DataOutputStream(out);
+		dout.writeShort(MAGIC);
+		dout.writeByte(VERSION);
+		dout.writeInt(frames.size());
+		dout.writeInt(array.length);
+		for (int i = 0; i < frames.size(); i++) {
+			dout.writeInt(Math.min(partitionSize, array.length - i * partitionSize));
+			dout.writeInt(frames.get(i).length);
+		}
+		for (byte[] frame : frames) {
+			dout.write(frame);
+		}
+		dout.flush();
+	}
+	
+	/**
+	 * Deserializes data written by {@link #serialize(Collection)} on the common pool.
+	 * 
+	 * @throws java.io.InvalidClassException If the class of an element cannot be found.
+	 * @throws IOException If the data is corrupt or an element cannot be deserialized.
+	 */
+	public static List<Object> deserialize(byte[] data) throws IOException {
+		return deserialize(data, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Deserializes data written by {@link #serialize(Collection)}, decoding the frames concurrently on the specified pool.
+	 * 
+	 * @return A list of the elements in their original order.
+	 * 
+	 * @throws java.io.InvalidClassException If the class of an element cannot be found.
+	 * @throws IOException If the data is corrupt or an element cannot be deserialized.
+	 */
+	public static List<Object> deserialize(byte[] data, ForkJoinPool pool) throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap(data);
+		int frameCount;
+		int elementCount;
+		int[] counts;
+		int[] offsets;
+		try {
+			if (buf.getShort() != MAGIC) {
+				throw new StreamCorruptedException("Not parallel serialized data: bad magic");
+			}
+			byte version = buf.get();
+			if (version != VERSION) {
+				throw new StreamCorruptedException("Unsupported parallel serialization version: " + version);
+			}
+			frameCount = buf.getInt();
+			elementCount = buf.getInt();
+			if (frameCount < 0 || elementCount < 0 || (long) frameCount * INDEX_ENTRY_LEN > buf.remaining()) {
+				throw new StreamCorruptedException("Corrupt parallel serialization header");
+			}
+			counts = new int[frameCount];
+			offsets = new int[frameCount + 1];
+			offsets[0] = HEADER_LEN + frameCount * INDEX_ENTRY_LEN;
+			long total = 0;
+			for (int i = 0; i < frameCount; i++) {
+				counts[i] = buf.getInt();
+				int len = buf.getInt();
+				total += counts[i];
+				if (counts[i] < 0 || len < 0 || (long) offsets[i] + len > data.length) {
+					throw new StreamCorruptedException("Corrupt parallel serialization index at frame " + i);
+				}
+				offsets[i + 1] = offsets[i] + len;
+			}
+			if (total != elementCount) {
+				throw new StreamCorruptedException("Corrupt parallel serialization index: frame counts don't add up to " + elementCount);
+			}
+		} catch (BufferUnderflowException e) {
+			throw new StreamCorruptedException("Truncated parallel serialization header");
+		}
+		
+		Object[] elements = new Object[elementCount];
+		List<ForkJoinTask<Void>> tasks = new ArrayList<>(frameCount);
+		int start = 0;
+		for (int i = 0; i < frameCount; i++) {
+			final int frameOff = offsets[i];
+			final int frameLen = offsets[i + 1] - offsets[i];
+			final int frameStart = start;
+			final int frameCountExpected = counts[i];
+			tasks.add(pool.submit(() -> {
+				decodeFrame(data, frameOff, frameLen, elements, frameStart, frameCountExpected);
+				return null;
+			}));
+			start += counts[i];
+		}
+		for (ForkJoinTask<Void> task : tasks) {
+			join(task);
+		}
+		return new ArrayList<>(Arrays.asList(elements));
+	}
+	
+	private static void decodeFrame(byte[] data, int off, int len, Object[] elements, int start, int count) throws IOException {
+		Iterator<Object> it = ObjectUtils.deserializeAll(new ByteArrayInputStream(data, off, len), Object.class);
+		int n = 0;
+		while (it.hasNext()) {
+			if (n == count) {
+				throw new StreamCorruptedException("Frame has more elements than its index entry of " + count);
+			}
+			elements[start + n++] = it.next();
+		}
+		if (n != count) {
+			throw new StreamCorruptedException("Frame has " + n + " elements but its index entry has " + count);
+		}
+	}
+	
+	private static int partitionSize(int size, ForkJoinPool pool) {
+		return Math.max(MIN_PARTITION_SIZE, size / (pool.getParallelism() * 4) + 1);
+	}
+	
+	/**
+	 * Waits for the task and rethrows its failure, unwrapping the exceptions of the serializer.
+	 */
+	private static <T> T join(ForkJoinTask<T> task) throws IOException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for serialization", e);
+		} catch (ExecutionException e) {
+			// the pool wraps checked exceptions, and may copy exceptions thrown in other threads, so look for the original.
+			for (Throwable t = e.getCause(); t != null; t = t.getCause()) {
+				if (t instanceof IOException) {
+					throw (IOException) t;
+				}
+			}
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+}
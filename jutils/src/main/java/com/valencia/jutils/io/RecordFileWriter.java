@@ -0,0 +1,81 @@
+/**
+ * 
+ */
+package com.valencia.jutils.io;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes objects as length-framed records that can be read back with {@link MappedRecordReader}. The format is:
+ * <pre>
+ * int magic "JURF", byte version, then for each record: int length, byte[length] serialized object
+ * </pre>
+ * where each object is serialized with {@link ObjectUtils#serialize(Object)}.
+ * 
+ * @author Gabriel Valencia, gee4vee@me.com
+ */
+public class RecordFileWriter implements Closeable {
+	
+	static final int MAGIC = 0x4A555246;
+	static final byte VERSION = 1;
+	static final int HEADER_LEN = 5;
+	
+	private final DataOutputStream out;
+	private long count;
+	
+	/**
+	 * Creates or truncates the specified file and writes the header to it.
+	 * 
+	 * @throws IOException
+	 */
+	public RecordFileWriter(Path file) throws IOException {
+		this(Files.newOutputStream(file));
+	}
+	
+	/**
+	 * Writes the header to the specified stream. The stream is closed when this writer is closed.
+	 * 
+	 * @throws IOException
+	 */
+	public RecordFileWriter(OutputStream out) throws IOException {
+		this.out = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+		this.out.writeInt(MAGIC);
+		this.out.writeByte(VERSION);
+	}
+	
+	/**
+	 * Serializes the specified object and writes it as a record.
+	 * 
+	 * @throws IOException
+	 */
+	public void write(Object obj) throws IOException {
+		try (ObjectUtils.SerializedBuffer buf = ObjectUtils.serializeToBuffer(obj)) {
+			this.out.writeInt(buf.length());
+			this.out.write(buf.array(), 0, buf.length());
+		}
+		this.count++;
+	}
+	
+	/**
+	 * Returns the number of records written.
+	 */
+	public long getCount() {
+		return this.count;
+	}
+	
+	public void flush() throws IOException {
+		this.out.flush();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		this.out.close();
+	}
+
+}
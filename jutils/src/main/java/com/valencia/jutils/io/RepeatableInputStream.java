@@ -12,35 +12,161 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.valencia.jutils.string.RandomString;
 
 /**
  * A wrapper around an input stream to allow for repeated reads from the beginning. The data from the wrapped stream is saved in temporary 
- * storage.
+ * storage: in memory up to a threshold, and in a temporary file once it grows past that. Memory buffers are pooled across streams, so 
+ * small streams are usually replayed without any allocation or file system access. Data in a temporary file can optionally be replayed 
+ * through a memory mapping, which reads straight from the page cache.
  * 
  * @author Gabriel Valencia, gee4vee@me.com
  */
 public class RepeatableInputStream extends InputStream {
     
+    /**
+     * The size of the chunks in which data is copied.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    /**
+     * The default number of bytes kept in memory before spilling to a temporary file.
+     */
+    public static final int DEFAULT_MEMORY_THRESHOLD = 256 * 1024;
+    
+    /**
+     * The maximum number of memory buffers kept in the pool.
+     */
+    private static final int MAX_POOLED_BUFFERS = 16;
+    
+    /**
+     * Buffers larger than this are not returned to the pool.
+     */
+    private static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+    
+    private static final ConcurrentLinkedQueue<ReusableByteArrayOutputStream> bufferPool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooledBuffers = new AtomicInteger();
+    
     private final InputStream is;
+    private final int memoryThreshold;
+    private final boolean mappedReplay;
+    private ReusableByteArrayOutputStream memory;
+    private final byte[] single = new byte[1];
+    private long captured;
     private File tempFile;
+    private MappedByteBuffer mapped;
     private OutputStream tempOS;
     private InputStream tempIS;
     private boolean restarted = false;
+    /**
+     * The position in the captured data since the last restart.
+     */
+    private long replayed;
     
     
     /**
-     * Returns a new repeatable input stream for the specified stream.
+     * Returns a new repeatable input stream for the specified stream, which keeps up to {@link #DEFAULT_MEMORY_THRESHOLD} bytes in 
+     * memory.
      * 
      * @throws IOException 
      */
     public RepeatableInputStream(InputStream is) throws IOException {
-        this.is = new BufferedInputStream(is);
+        this(is, DEFAULT_MEMORY_THRESHOLD);
+    }
+    
+    /**
+     * Returns a new repeatable input stream for the specified stream.
+     * 
+     * @param memoryThreshold The maximum number of bytes to keep in memory. Once more data than this has been read, it is all moved to 
+     * a temporary file. Can be 0 to always use a temporary file.
+     * 
+     * @throws IOException 
+     */
+    public RepeatableInputStream(InputStream is, int memoryThreshold) throws IOException {
+        this(is, memoryThreshold, false);
+    }
+    
+    /**
+     * Returns a new repeatable input stream for the specified stream.
+     * 
+     * @param memoryThreshold The maximum number of bytes to keep in memory. Once more data than this has been read, it is all moved to 
+     * a temporary file. Can be 0 to always use a temporary file.
+     * @param mappedReplay Whether to replay data in a temporary file by mapping it into memory rather than reading it through a file 
+     * stream. Files too large to map are always read through a stream.
+     * 
+     * @throws IOException 
+     */
+    public RepeatableInputStream(InputStream is, int memoryThreshold, boolean mappedReplay) throws IOException {
+        if (memoryThreshold < 0) {
+            throw new IllegalArgumentException("Memory threshold must not be negative: " + memoryThreshold);
+        }
+        this.is = new BufferedInputStream(is, BUFFER_SIZE);
+        this.memoryThreshold = memoryThreshold;
+        this.mappedReplay = mappedReplay;
+    }
+    
+    /**
+     * Returns whether the data read so far has been moved to a temporary file.
+     */
+    public boolean isSpilled() {
+        return this.tempFile != null;
+    }
+    
+    /**
+     * Saves the specified data read from the wrapped stream, spilling everything saved so far to a temporary file if it doesn't fit 
+     * in memory.
+     */
+    private void capture(byte[] b, int off, int len) throws IOException {
+        this.captured += len;
+        if (this.tempOS == null) {
+            int saved = this.memory == null ? 0 : this.memory.size();
+            if (saved + len <= this.memoryThreshold) {
+                if (this.memory == null) {
+                    this.memory = acquireBuffer();
+                }
+                this.memory.write(b, off, len);
+                return;
+            }
+            this.spill();
+        }
+        this.tempOS.write(b, off, len);
+    }
+    
+    private void spill() throws IOException {
         this.tempFile = File.createTempFile(RepeatableInputStream.class.getSimpleName() + "_" + new RandomString(6), ".dat");
         this.tempFile.deleteOnExit();
-        this.tempOS = new BufferedOutputStream(new FileOutputStream(this.tempFile));
+        this.tempOS = new BufferedOutputStream(new FileOutputStream(this.tempFile), BUFFER_SIZE);
+        if (this.memory != null) {
+            this.memory.writeTo(this.tempOS);
+            releaseBuffer(this.memory);
+            this.memory = null;
+        }
+    }
+    
+    private static ReusableByteArrayOutputStream acquireBuffer() {
+        ReusableByteArrayOutputStream buf = bufferPool.poll();
+        if (buf == null) {
+            return new ReusableByteArrayOutputStream(8 * 1024);
+        }
+        pooledBuffers.decrementAndGet();
+        return buf;
+    }
+    
+    private static void releaseBuffer(ReusableByteArrayOutputStream buf) {
+        if (buf.capacity() <= MAX_POOLED_BUFFER_SIZE && pooledBuffers.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+            buf.reset();
+            bufferPool.offer(buf);
+        } else if (buf.capacity() <= MAX_POOLED_BUFFER_SIZE) {
+            pooledBuffers.decrementAndGet();
+        }
     }
     
     /**
@@ -49,42 +175,177 @@ public class RepeatableInputStream extends InputStream {
      * @throws IOException
      */
     public void restart() throws IOException {
-        int wrappedData = this.is.read();
-        while (wrappedData != -1) {
-            // the wrapped stream still has data. consume it all into our temp storage.
-            this.tempOS.write(wrappedData);
-            wrappedData = this.is.read();
+        if (!this.restarted) {
+            // the wrapped stream may still have data. consume it all into our temp storage.
+            byte[] buf = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = this.is.read(buf)) != -1) {
+                this.capture(buf, 0, n);
+            }
         }
-        this.tempOS.close();
         
         if (this.tempIS != null) {
             this.tempIS.close();
         }
-        this.tempIS = new BufferedInputStream(new FileInputStream(this.tempFile));
+        if (this.tempOS != null) {
+            this.tempOS.close();
+            if (this.mappedReplay && this.captured <= Integer.MAX_VALUE) {
+                this.tempIS = new ByteBufferInputStream(this.map().duplicate());
+            } else {
+                this.tempIS = new BufferedInputStream(new FileInputStream(this.tempFile), BUFFER_SIZE);
+            }
+        } else if (this.memory != null) {
+            this.tempIS = new ByteArrayInputStream(this.memory.array(), 0, this.memory.size());
+        } else {
+            this.tempIS = new ByteArrayInputStream(new byte[0]);
+        }
+        this.replayed = 0;
         this.restarted = true;
     }
 
+    /**
+     * Returns a read-only view of the entire content of the wrapped stream without copying it. Data kept in memory is wrapped and data 
+     * in a temporary file is mapped. If this stream has not been restarted, the rest of the wrapped stream is read into temporary 
+     * storage first and reading then continues from the same position. The view must not be used after this stream is closed.
+     * 
+     * @throws IOException If the data cannot be read or is in a temporary file too large to map.
+     */
+    public ByteBuffer asByteBuffer() throws IOException {
+        if (!this.restarted) {
+            long consumed = this.captured;
+            this.restart();
+            while (consumed > 0) {
+                long skipped = this.skip(consumed);
+                if (skipped <= 0) {
+                    throw new IOException("Unable to resume at position " + consumed + " of the captured data");
+                }
+                consumed -= skipped;
+            }
+        }
+        if (this.tempFile != null) {
+            return this.map().duplicate();
+        }
+        if (this.memory == null) {
+            return ByteBuffer.allocate(0).asReadOnlyBuffer();
+        }
+        return ByteBuffer.wrap(this.memory.array(), 0, this.memory.size()).asReadOnlyBuffer();
+    }
+    
+    /**
+     * Maps the temporary file, which must be complete, or returns the existing mapping.
+     */
+    private MappedByteBuffer map() throws IOException {
+        if (this.mapped == null) {
+            if (this.captured > Integer.MAX_VALUE) {
+                throw new IOException("Captured data is too large to map: " + this.captured + " bytes");
+            }
+            // the mapping stays valid after the channel is closed.
+            try (FileChannel channel = FileChannel.open(this.tempFile.toPath(), StandardOpenOption.READ)) {
+                this.mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, this.captured);
+            }
+        }
+        return this.mapped;
+    }
+    
     @Override
     public int read() throws IOException {
         if (this.restarted) {
-            return this.tempIS.read();
+            int b = this.tempIS.read();
+            if (b != -1) {
+                this.replayed++;
+            }
+            return b;
         }
         
         // save the wrapped stream data to our temp storage until we consume the stream.
         int wrappedData = this.is.read();
         if (wrappedData != -1) {
-            this.tempOS.write(wrappedData);
-        } else {
+            this.single[0] = (byte) wrappedData;
+            this.capture(this.single, 0, 1);
+        } else if (this.tempOS != null) {
             this.tempOS.close();
         }
         return wrappedData;
     }
     
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (this.restarted) {
+            int n = this.tempIS.read(b, off, len);
+            if (n > 0) {
+                this.replayed += n;
+            }
+            return n;
+        }
+        
+        int n = this.is.read(b, off, len);
+        if (n > 0) {
+            this.capture(b, off, n);
+        } else if (n == -1 && this.tempOS != null) {
+            this.tempOS.close();
+        }
+        return n;
+    }
+    
+    @Override
+    public long skip(long n) throws IOException {
+        if (this.restarted) {
+            // a file stream skips past its end, so don't ask it for more than is left.
+            long skipped = this.tempIS.skip(Math.min(n, this.captured - this.replayed));
+            this.replayed += skipped;
+            return skipped;
+        }
+        
+        // skipped data still has to be saved, so read it.
+        byte[] buf = new byte[(int) Math.min(BUFFER_SIZE, Math.max(n, 0))];
+        long skipped = 0;
+        while (skipped < n) {
+            int r = this.read(buf, 0, (int) Math.min(buf.length, n - skipped));
+            if (r == -1) {
+                break;
+            }
+            skipped += r;
+        }
+        return skipped;
+    }
+    
+    @Override
+    public int available() throws IOException {
+        return this.restarted ? this.tempIS.available() : this.is.available();
+    }
+    
+    /**
+     * Reads all remaining data from this stream and writes it to the specified stream in large chunks. The output stream is not closed.
+     * 
+     * @return The number of bytes transferred.
+     * 
+     * @throws IOException
+     */
+    public long transferTo(OutputStream out) throws IOException {
+        byte[] buf = new byte[BUFFER_SIZE];
+        long transferred = 0;
+        int n;
+        while ((n = this.read(buf, 0, buf.length)) != -1) {
+            out.write(buf, 0, n);
+            transferred += n;
+        }
+        return transferred;
+    }
+    
     @Override
     public void close() throws IOException {
         this.is.close();
-        this.tempIS.close();
-        this.tempOS.close();
+        if (this.tempIS != null) {
+            this.tempIS.close();
+        }
+        if (this.tempOS != null) {
+            this.tempOS.close();
+        }
+        if (this.memory != null) {
+            releaseBuffer(this.memory);
+            this.memory = null;
+        }
+        this.mapped = null;
     }
     
     public static void main(String[] args) throws Exception {
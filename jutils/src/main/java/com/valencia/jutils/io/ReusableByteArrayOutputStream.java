@@ -0,0 +1,46 @@
+/**
+ * 
+ */
+package com.valencia.jutils.io;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link ByteArrayOutputStream} that exposes its internal array so that the written bytes can be used without the copy made by 
+ * {@link #toByteArray()}. Call {@link #reset()} to reuse the stream, keeping its capacity.
+ * 
+ * @author Gabriel Valencia, gee4vee@me.com
+ */
+public class ReusableByteArrayOutputStream extends ByteArrayOutputStream {
+	
+	public ReusableByteArrayOutputStream() {
+		super();
+	}
+	
+	public ReusableByteArrayOutputStream(int size) {
+		super(size);
+	}
+	
+	/**
+	 * Returns the internal array. Only the first {@link #size()} bytes are valid, and the array is replaced if the stream grows.
+	 */
+	public byte[] array() {
+		return this.buf;
+	}
+	
+	/**
+	 * Returns the current capacity of the internal array.
+	 */
+	public int capacity() {
+		return this.buf.length;
+	}
+	
+	/**
+	 * Returns a buffer that wraps the valid bytes of the internal array without copying them.
+	 */
+	public ByteBuffer toByteBuffer() {
+		return ByteBuffer.wrap(this.buf, 0, this.count);
+	}
+
+}
@@ -0,0 +1,48 @@
+/**
+ * 
+ */
+package com.valencia.jutils.io;
+
+import java.io.IOException;
+
+/**
+ * A hand-written binary encoding for one type, used by {@link ObjectUtils#serializeBinary(Object)} in place of Java serialization. The tag 
+ * of the codec is written before each value so that {@link ObjectUtils#deserialize(byte[], Class)} can find it again. Codecs other 
+ * than the built-in ones must be {@link TypeCodecs#register(TypeCodec) registered} on both sides.
+ * 
+ * <p>Implementations must be thread safe.
+ * 
+ * @author Gabriel Valencia, gee4vee@me.com
+ *
+ * @param <T> The type encoded.
+ */
+public interface TypeCodec<T> {
+	
+	/**
+	 * Returns the tag written before values encoded by this codec. Tags 0-63 are reserved for the built-in codecs in 
+	 * {@link TypeCodecs}.
+	 */
+	byte getTag();
+	
+	/**
+	 * Returns the exact class this codec encodes. Subclasses are not encoded by it.
+	 */
+	Class<T> getType();
+	
+	/**
+	 * Writes the specified value. Nested objects can be written with {@link BinaryObjectOutput#writeObject(Object)}.
+	 * 
+	 * @throws IOException
+	 */
+	void write(T value, BinaryObjectOutput out) throws IOException;
+	
+	/**
+	 * Reads a value written by {@link #write(Object, BinaryObjectOutput)}. Nested objects can be read with 
+	 * {@link BinaryObjectInput#readObject()}.
+	 * 
+	 * @throws IOException
+	 * @throws ClassNotFoundException If a nested object written with Java serialization is of an unknown class.
+	 */
+	T read(BinaryObjectInput in) throws IOException, ClassNotFoundException;
+
+}
@@ -0,0 +1,261 @@
+/**
+ * 
+ */
+package com.valencia.jutils.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+import java.util.zip.DataFormatException;
+
+import com.valencia.jutils.compression.CompressionUtils.CompressedData;
+
+/**
+ * The built-in {@link TypeCodec type codecs} and the registry used to look them up by class when writing and by tag when reading. 
+ * Built-in codecs cover strings, boxed primitives, primitive arrays, the common {@link java.util} lists, sets and maps, and 
+ * {@link CompressedData}. Collections are encoded as a size followed by their elements, each of which is written with its own codec 
+ * or Java serialization. {@link java.util.LinkedHashMap} has no codec since its access order can't be read back from a map, so it 
+ * is written with Java serialization, which keeps it.
+ * 
+ * @author Gabriel Valencia, gee4vee@me.com
+ */
+public class TypeCodecs {
+	
+	public static final byte NULL_TAG = 0;
+	/**
+	 * Objects without a codec, written with Java serialization.
+	 */
+	public static final byte JAVA_TAG = 1;
+	public static final byte STRING_TAG = 2;
+	public static final byte BOOLEAN_TAG = 3;
+	public static final byte BYTE_TAG = 4;
+	public static final byte SHORT_TAG = 5;
+	public static final byte CHAR_TAG = 6;
+	public static final byte INT_TAG = 7;
+	public static final byte LONG_TAG = 8;
+	public static final byte FLOAT_TAG = 9;
+	public static final byte DOUBLE_TAG = 10;
+	public static final byte BYTE_ARRAY_TAG = 11;
+	public static final byte INT_ARRAY_TAG = 12;
+	public static final byte LONG_ARRAY_TAG = 13;
+	public static final byte ARRAY_LIST_TAG = 14;
+	public static final byte LINKED_LIST_TAG = 15;
+	public static final byte HASH_SET_TAG = 16;
+	public static final byte LINKED_HASH_SET_TAG = 17;
+	public static final byte HASH_MAP_TAG = 18;
+	/**
+	 * Reserved, no longer written. {@link java.util.LinkedHashMap} is written with Java serialization so that its access order is kept.
+	 */
+	public static final byte LINKED_HASH_MAP_TAG = 19;
+	public static final byte COMPRESSED_DATA_TAG = 20;
+	/**
+	 * Objects without a codec, written through a shared Java serialization stream, see 
+	 * {@link BinaryObjectOutput#BinaryObjectOutput(java.io.OutputStream, int)}.
+	 */
+	public static final byte SHARED_JAVA_TAG = 21;
+	
+	/**
+	 * The lowest tag available to {@link #register(TypeCodec) registered} codecs.
+	 */
+	public static final int FIRST_USER_TAG = 64;
+	
+	/**
+	 * Collections are presized to at most this many elements when read, so that a corrupt size can't allocate a huge table up front.
+	 */
+	private static final int MAX_PRESIZE = 4096;
+	
+	private static final AtomicReferenceArray<TypeCodec<?>> byTag = new AtomicReferenceArray<>(256);
+	private static final Map<Class<?>, TypeCodec<?>> byType = new ConcurrentHashMap<>();
+	
+	static {
+		builtIn(new SimpleCodec<>(STRING_TAG, String.class, (v, out) -> out.writeString(v), in -> in.readString()));
+		builtIn(new SimpleCodec<>(BOOLEAN_TAG, Boolean.class, (v, out) -> out.writeBoolean(v), in -> in.readBoolean()));
+		builtIn(new SimpleCodec<>(BYTE_TAG, Byte.class, (v, out) -> out.writeByte(v), in -> in.readByte()));
+		builtIn(new SimpleCodec<>(SHORT_TAG, Short.class, (v, out) -> out.writeShort(v), in -> in.readShort()));
+		builtIn(new SimpleCodec<>(CHAR_TAG, Character.class, (v, out) -> out.writeChar(v), in -> in.readChar()));
+		builtIn(new SimpleCodec<>(INT_TAG, Integer.class, (v, out) -> out.writeVarLong(v), in -> (int) in.readVarLong()));
+		builtIn(new SimpleCodec<>(LONG_TAG, Long.class, (v, out) -> out.writeVarLong(v), in -> in.readVarLong()));
+		builtIn(new SimpleCodec<>(FLOAT_TAG, Float.class, (v, out) -> out.writeFloat(v), in -> in.readFloat()));
+		builtIn(new SimpleCodec<>(DOUBLE_TAG, Double.class, (v, out) -> out.writeDouble(v), in -> in.readDouble()));
+		builtIn(new SimpleCodec<>(BYTE_ARRAY_TAG, byte[].class, (v, out) -> {
+			out.writeVarInt(v.length);
+			out.write(v);
+		}, in -> {
+			byte[] v = new byte[in.readLength()];
+			in.readFully(v);
+			return v;
+		}));
+		builtIn(new SimpleCodec<>(INT_ARRAY_TAG, int[].class, (v, out) -> {
+			out.writeVarInt(v.length);
+			for (int i : v) {
+				out.writeInt(i);
+			}
+		}, in -> {
+			int[] v = new int[in.readLength()];
+			for (int i = 0; i < v.length; i++) {
+				v[i] = in.readInt();
+			}
+			return v;
+		}));
+		builtIn(new SimpleCodec<>(LONG_ARRAY_TAG, long[].class, (v, out) -> {
+			out.writeVarInt(v.length);
+			for (long l : v) {
+				out.writeLong(l);
+			}
+		}, in -> {
+			long[] v = new long[in.readLength()];
+			for (int i = 0; i < v.length; i++) {
+				v[i] = in.readLong();
+			}
+			return v;
+		}));
+		builtIn(collectionCodec(ARRAY_LIST_TAG, ArrayList.class, ArrayList::new));
+		builtIn(collectionCodec(LINKED_LIST_TAG, LinkedList.class, size -> new LinkedList<>()));
+		builtIn(collectionCodec(HASH_SET_TAG, HashSet.class, size -> new HashSet<>(size * 4 / 3 + 1)));
+		builtIn(collectionCodec(LINKED_HASH_SET_TAG, LinkedHashSet.class, size -> new LinkedHashSet<>(size * 4 / 3 + 1)));
+		builtIn(mapCodec(HASH_MAP_TAG, HashMap.class, size -> new HashMap<>(size * 4 / 3 + 1)));
+		builtIn(new SimpleCodec<>(COMPRESSED_DATA_TAG, CompressedData.class, (v, out) -> {
+			byte[] bytes = v.toBytes();
+			out.writeVarInt(bytes.length);
+			out.write(bytes);
+		}, in -> {
+			byte[] bytes = new byte[in.readLength()];
+			in.readFully(bytes);
+			try {
+				return CompressedData.readFrom(ByteBuffer.wrap(bytes));
+			} catch (DataFormatException e) {
+				throw new IOException("Corrupt compressed data", e);
+			}
+		}));
+	}
+	
+	private static void builtIn(TypeCodec<?> codec) {
+		byTag.set(codec.getTag() & 0xff, codec);
+		byType.put(codec.getType(), codec);
+	}
+	
+	/**
+	 * Registers the specified codec so that its type is written with it and values it wrote can be read back.
+	 * 
+	 * @throws IllegalArgumentException If the codec uses a reserved tag or another codec is registered with its tag or type.
+	 */
+	public static synchronized void register(TypeCodec<?> codec) {
+		int tag = codec.getTag() & 0xff;
+		if (tag < FIRST_USER_TAG) {
+			throw new IllegalArgumentException("Type codec tags 0-63 are reserved: " + tag);
+		}
+		TypeCodec<?> tagged = byTag.get(tag);
+		if (tagged != null && tagged != codec) {
+			throw new IllegalArgumentException("Type codec tag " + tag + " is already registered for " + tagged.getType().getName());
+		}
+		TypeCodec<?> existing = byType.get(codec.getType());
+		if (existing != null && existing != codec) {
+			throw new IllegalArgumentException(codec.getType().getName() + " already has a codec with tag " + (existing.getTag() & 0xff));
+		}
+		byTag.set(tag, codec);
+		byType.put(codec.getType(), codec);
+	}
+	
+	/**
+	 * Returns the codec with the specified tag or <code>null</code> if there is none.
+	 */
+	public static TypeCodec<?> get(byte tag) {
+		return byTag.get(tag & 0xff);
+	}
+	
+	/**
+	 * Returns the codec for exactly the specified class or <code>null</code> if there is none.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> TypeCodec<T> get(Class<T> type) {
+		return (TypeCodec<T>) byType.get(type);
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static <C extends Collection> TypeCodec<C> collectionCodec(byte tag, Class<C> type, IntFunction<C> factory) {
+		return new SimpleCodec<>(tag, type, (v, out) -> {
+			out.writeVarInt(v.size());
+			for (Object o : (Collection<Object>) v) {
+				out.writeObject(o);
+			}
+		}, in -> {
+			int size = in.readLength();
+			C c = factory.apply(Math.min(size, MAX_PRESIZE));
+			for (int i = 0; i < size; i++) {
+				c.add(in.readObject());
+			}
+			return c;
+		});
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static <M extends Map> TypeCodec<M> mapCodec(byte tag, Class<M> type, IntFunction<M> factory) {
+		return new SimpleCodec<>(tag, type, (v, out) -> {
+			out.writeVarInt(v.size());
+			for (Map.Entry<Object, Object> e : ((Map<Object, Object>) v).entrySet()) {
+				out.writeObject(e.getKey());
+				out.writeObject(e.getValue());
+			}
+		}, in -> {
+			int size = in.readLength();
+			M m = factory.apply(Math.min(size, MAX_PRESIZE));
+			for (int i = 0; i < size; i++) {
+				m.put(in.readObject(), in.readObject());
+			}
+			return m;
+		});
+	}
+	
+	private static interface Writer<T> {
+		void write(T value, BinaryObjectOutput out) throws IOException;
+	}
+	
+	private static interface Reader<T> {
+		T read(BinaryObjectInput in) throws IOException, ClassNotFoundException;
+	}
+	
+	private static class SimpleCodec<T> implements TypeCodec<T> {
+		
+		private final byte tag;
+		private final Class<T> type;
+		private final Writer<T> writer;
+		private final Reader<T> reader;
+		
+		SimpleCodec(byte tag, Class<T> type, Writer<T> writer, Reader<T> reader) {
+			this.tag = tag;
+			this.type = type;
+			this.writer = writer;
+			this.reader = reader;
+		}
+		
+		@Override
+		public byte getTag() {
+			return this.tag;
+		}
+		
+		@Override
+		public Class<T> getType() {
+			return this.type;
+		}
+		
+		@Override
+		public void write(T value, BinaryObjectOutput out) throws IOException {
+			this.writer.write(value, out);
+		}
+		
+		@Override
+		public T read(BinaryObjectInput in) throws IOException, ClassNotFoundException {
+			return this.reader.read(in);
+		}
+	}
+
+}